@@ -7,7 +7,9 @@ import clegoues.genprog4java.mut.EditOperation;
 import clegoues.genprog4java.rep.MergedRepresentation;
 import clegoues.genprog4java.rep.Representation;
 
+import java.util.ArrayList;
 import java.util.LinkedHashSet;
+import java.util.List;
 
 public class GeneticProgramming<G extends EditOperation> extends Search<G>{
 	private int generationsRun = 0;
@@ -48,7 +50,14 @@ public class GeneticProgramming<G extends EditOperation> extends Search<G>{
 			initialPopulation.add(original.copy());
 			stillNeed--;
 		}
-		if (Configuration.editMode == Configuration.EditMode.PRE_COMPUTE) {
+		if (Configuration.editMode == Configuration.EditMode.PRE_COMPUTE && Search.precomputeFullSpace) {
+			for (Representation<G> rep : this.enumerateSingleEdits(original)) {
+				initialPopulation.add(rep);
+			}
+			MergedRepresentation merged = MergedRepresentation.merge(initialPopulation);
+			initialPopulation.add((Representation) merged);
+		}
+		else if (Configuration.editMode == Configuration.EditMode.PRE_COMPUTE) {
 			LinkedHashSet<Representation<G>> set = new LinkedHashSet<>();
 			int attempts = 0;
 			set.add(original.copy());	// avoid mutations that do nothing, e.g., StmtReplace(62,62)
@@ -85,6 +94,14 @@ public class GeneticProgramming<G extends EditOperation> extends Search<G>{
 		}
 		logger.info("Population size: " + initialPopulation.size());
 
+		// the merged variant depends on how its members compiled, so it is left to the serial pass below
+		List<Representation<G>> toEvaluate = new ArrayList<Representation<G>>();
+		for (Representation<G> item : initialPopulation) {
+			if (!(item instanceof MergedRepresentation)) {
+				toEvaluate.add(item);
+			}
+		}
+		fitnessEngine.testFitnessConcurrently(0, toEvaluate);
 		for (Representation<G> item : initialPopulation) {
 			Solutions.increaseAttemptCount();
 			if (fitnessEngine.testFitness(0, item)) {
@@ -158,6 +175,11 @@ public class GeneticProgramming<G extends EditOperation> extends Search<G>{
 			}
 
 			// step 4: fitness
+			List<Representation<G>> toEvaluate = new ArrayList<Representation<G>>();
+			for (Representation<G> item : incomingPopulation) {
+				toEvaluate.add(item);
+			}
+			fitnessEngine.testFitnessConcurrently(gen, toEvaluate);
 			for (Representation<G> item : incomingPopulation) {
 				Solutions.increaseAttemptCount();
 				if (fitnessEngine.testFitness(gen, item)) {
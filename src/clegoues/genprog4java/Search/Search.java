@@ -44,12 +44,16 @@ import clegoues.genprog4java.mut.EditOperation;
 import clegoues.genprog4java.mut.Mutation;
 import clegoues.genprog4java.mut.WeightedHole;
 import clegoues.genprog4java.mut.WeightedMutation;
+import clegoues.genprog4java.mut.edits.java.JavaEditPool;
 import clegoues.genprog4java.mut.edits.java.JavaSavedEdit;
+import clegoues.genprog4java.mut.holes.java.JavaHole;
 import clegoues.genprog4java.mut.holes.java.JavaLocation;
 import clegoues.genprog4java.rep.JavaRepresentation;
 import clegoues.genprog4java.rep.Representation;
+import clegoues.util.AliasSampler;
 import clegoues.util.ConfigurationBuilder;
-import clegoues.util.GlobalUtils;
+import clegoues.util.FenwickSampler;
+import clegoues.util.WorkerPool;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.log4j.Logger;
 import org.eclipse.jdt.core.dom.*;
@@ -57,8 +61,13 @@ import org.eclipse.jdt.core.dom.*;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 import static clegoues.util.ConfigurationBuilder.*;
 
@@ -105,6 +114,12 @@ public abstract class Search<G extends EditOperation> {
 			.withHelp( "the proportional mutation rate = number of genes to modify" )
 			.inGroup( "Search Parameters" )
 			.build();
+	protected static boolean precomputeFullSpace = ConfigurationBuilder.of( BOOL_ARG )
+			.withVarName( "precomputeFullSpace" )
+			.withDefault( "false" )
+			.withHelp( "in pre_compute mode, put every single edit in the pool rather than a popsize sample of them" )
+			.inGroup( "Search Parameters" )
+			.build();
 	//private static boolean continueSearch = false;
 	static boolean continueSearch = ConfigurationBuilder.of( BOOL_ARG )
 			.withVarName( "continueSearch" )
@@ -250,14 +265,34 @@ public abstract class Search<G extends EditOperation> {
 	    assert Configuration.editMode == Configuration.EditMode.EXISTING : "EXISTING mode only";
 	    assert variant instanceof JavaRepresentation : "Only JavaRepresentation is supported in EXISTING mode";
 		JavaRepresentation thisVariant = (JavaRepresentation) variant;
-	    boolean found = false;
-		JavaSavedEdit next = null;
-	    while(!found) {
-	    	next = thisVariant.editFactory.pool.pickOne();
-	    	found = !thisVariant.getGenome().contains(next);
+		JavaEditPool pool = thisVariant.editFactory.pool;
+		// random picks usually hit; only if they keep missing (a small shard, or a genome holding most of it)
+		// is the pool walked from a random start, so that this always ends
+		for (int attempt = 0; attempt < pool.size(); attempt++) {
+			JavaSavedEdit next = pool.pickOne();
+			if (this.canJoin(thisVariant, next)) {
+				thisVariant.getGenome().add(next);
+				return;
+			}
 		}
-	    assert next != null : "Couldn't find any usable JavaSavedEdit";
-	    thisVariant.getGenome().add(next);
+		if (!pool.isEmpty()) {
+			int start = Configuration.randomizer.nextInt(pool.size());
+			for (int i = 0; i < pool.size(); i++) {
+				JavaSavedEdit next = pool.get((start + i) % pool.size());
+				if (this.canJoin(thisVariant, next)) {
+					thisVariant.getGenome().add(next);
+					return;
+				}
+			}
+		}
+		logger.info("no edit in the pool can be added to " + variant.getName() + "; leaving it as it is");
+	}
+
+	/** whether edit is new to the variant, and in the same shard of the merged program as the rest of its genome */
+	private boolean canJoin(JavaRepresentation variant, JavaSavedEdit edit) {
+		// edits from another shard of the merged program can't run alongside the ones already in the genome
+		return !variant.getGenome().contains(edit) && (variant.getGenome().isEmpty()
+				|| ((JavaSavedEdit) variant.getGenome().get(0)).shard == edit.shard);
 	}
 	/**
 	 * 
@@ -315,32 +350,95 @@ public abstract class Search<G extends EditOperation> {
 					foundMutationThatCanApplyToAtom = true;
 				}
 				//choose a mutation 
-				List availableMutationsAL = rescaleMutations(availableMutations);
-				Pair<Mutation, Double> chosenMutation = (Pair<Mutation, Double>) GlobalUtils.chooseOneWeighted(availableMutationsAL);
-				Mutation mut = chosenMutation.getLeft();
-				List<WeightedHole> allowed = variant.editSources(location, mut);
+				List<WeightedMutation> availableMutationsAL = rescaleMutations(availableMutations);
+				Mutation mut = availableMutationsAL.get(mutationSampler(location, availableMutationsAL)
+						.indexOf(Configuration.randomizer.nextDouble())).getLeft();
+				List<WeightedHole> allowed = new ArrayList<WeightedHole>(variant.editSources(location, mut));
 				allowed = rescaleAllowed(mut,allowed, variant,location.getId());
-				boolean found = false;
-				while (!found) {
-					if(!allowed.isEmpty()){
-						WeightedHole selected = (WeightedHole) GlobalUtils
-								.chooseOneWeighted(new ArrayList(allowed));
-						if (!shouldExcludeFixingIngredient(location, selected)) {
-							found = true;
-							variant.performEdit(mut, location, selected.getHole());
-						}
-						else {
-							allowed.remove(selected);
-						}
-					}
-					else {
+				// draw without replacement until an ingredient is acceptable, or there are none left
+				FenwickSampler ingredients = new FenwickSampler((List) allowed);
+				while (ingredients.remaining() > 0) {
+					int i = ingredients.indexOf(Configuration.randomizer.nextDouble());
+					WeightedHole selected = allowed.get(i);
+					if (!shouldExcludeFixingIngredient(location, selected)) {
+						variant.performEdit(mut, location, selected.getHole());
 						break;
 					}
+					ingredients.remove(i);
 				}
 			}
 		}
 	}
 
+	/**
+	 * every single-edit variant of original: each fault location, each mutation that applies there, and each
+	 * source for it that mutate() would accept.  Sources are gathered in parallel, a location per job, and
+	 * variants are told apart by their edit rather than by their source text.
+	 * @return the variants, in fault space order
+	 */
+	protected List<Representation<G>> enumerateSingleEdits(final Representation<G> original) {
+		List<Callable<List<Pair<Mutation, WeightedHole>>>> jobs = new ArrayList<Callable<List<Pair<Mutation, WeightedHole>>>>();
+		final List<Location> locations = new ArrayList<Location>(original.getLocalization().getFaultLocalization());
+		for (final Location location : locations) {
+			jobs.add(new Callable<List<Pair<Mutation, WeightedHole>>>() {
+				@Override
+				public List<Pair<Mutation, WeightedHole>> call() {
+					List<Pair<Mutation, WeightedHole>> edits = new ArrayList<Pair<Mutation, WeightedHole>>();
+					ASTNode code = ((JavaLocation) location).getCodeElement();
+					if (getMethodDeclaration(code) == null || code instanceof SwitchCase) {
+						return edits;	// we don't mutate static initializers
+					}
+					for (WeightedMutation mutation : original.availableMutations(location)) {
+						Mutation mut = mutation.getLeft();
+						for (WeightedHole hole : original.editSources(location, mut)) {
+							if (shouldExcludeFixingIngredient(location, hole)) {
+								continue;
+							}
+							// e.g., StmtReplace(62,62), which does nothing
+							if ((mut == Mutation.REPLACE || mut == Mutation.SWAP) && hole.getHole() instanceof JavaHole
+									&& ((JavaHole) hole.getHole()).getCodeBankId() == location.getId()) {
+								continue;
+							}
+							edits.add(Pair.of(mut, hole));
+						}
+					}
+					return edits;
+				}
+			});
+		}
+		List<List<Pair<Mutation, WeightedHole>>> editsByLocation = WorkerPool.invokeAll(jobs);
+
+		// variants compare by their genome fingerprint, so the set drops edits that are the same program
+		Set<Representation<G>> variants = new LinkedHashSet<Representation<G>>();
+		for (int i = 0; i < locations.size(); i++) {
+			for (Pair<Mutation, WeightedHole> edit : editsByLocation.get(i)) {
+				Representation<G> variant = original.copy();
+				variant.performEdit(edit.getLeft(), locations.get(i), edit.getRight().getHole());
+				variants.add(variant);
+			}
+		}
+		logger.info("Enumerated " + variants.size() + " single edits at " + locations.size() + " locations");
+		return new ArrayList<Representation<G>>(variants);
+	}
+
+	/**
+	 * alias tables for the mutations available at each location, by location id.  A location's
+	 * mutations and their weights rarely change from one variant to the next, so the table is
+	 * rebuilt only when they do.
+	 */
+	private final Map<Integer, Pair<List<WeightedMutation>, AliasSampler>> mutationSamplers =
+			new HashMap<Integer, Pair<List<WeightedMutation>, AliasSampler>>();
+
+	private AliasSampler mutationSampler(Location location, List<WeightedMutation> mutations) {
+		Pair<List<WeightedMutation>, AliasSampler> cached = mutationSamplers.get(location.getId());
+		if (cached == null || !cached.getLeft().equals(mutations)) {
+			cached = Pair.of((List<WeightedMutation>) new ArrayList<WeightedMutation>(mutations),
+					new AliasSampler(mutations));
+			mutationSamplers.put(location.getId(), cached);
+		}
+		return cached.getRight();
+	}
+
 	private boolean shouldExcludeFixingIngredient(Location location, WeightedHole hole) {
 		ASTNode locationNode = ((JavaLocation) location).getCodeElement();
 		ASTNode fixingIngredient = (ASTNode) hole.getHole().getCode();
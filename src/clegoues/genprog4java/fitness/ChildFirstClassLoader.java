@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2014-2015, 
+ *  Claire Le Goues     <clegoues@cs.cmu.edu>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package clegoues.genprog4java.fitness;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Class loader for the program under test in the runners: looks in its own classpath (and the in-memory
+ * classes of a variant, if any) before its parent, so that the variant's classes win even when the project
+ * or its tests are also on the runner's own classpath (libs).  The JDK, JUnit, hamcrest and the runner
+ * classes still come from the parent, so that the tests and the runner agree on them.
+ * Like the runners, this must be compiled into the runner jar.
+ */
+class ChildFirstClassLoader extends URLClassLoader {
+	private static final String[] SHARED = {
+		"java.", "javax.", "sun.", "com.sun.", "jdk.",
+		"org.junit.", "junit.", "org.hamcrest.", "clegoues.genprog4java.fitness."
+	};
+
+	private final Map<String, byte[]> classes;
+
+	ChildFirstClassLoader(URL[] urls, ClassLoader parent) {
+		this(urls, parent, Collections.<String, byte[]>emptyMap());
+	}
+
+	ChildFirstClassLoader(URL[] urls, ClassLoader parent, Map<String, byte[]> classes) {
+		super(urls, parent);
+		this.classes = classes;
+	}
+
+	private static boolean isShared(String name) {
+		for (String prefix : SHARED) {
+			if (name.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+		if (isShared(name)) {
+			return super.loadClass(name, resolve);
+		}
+		synchronized (getClassLoadingLock(name)) {
+			Class<?> loaded = findLoadedClass(name);
+			if (loaded == null) {
+				try {
+					loaded = findClass(name);
+				} catch (ClassNotFoundException e) {
+					loaded = getParent().loadClass(name);
+				}
+			}
+			if (resolve) {
+				resolveClass(loaded);
+			}
+			return loaded;
+		}
+	}
+
+	@Override
+	protected Class<?> findClass(String name) throws ClassNotFoundException {
+		byte[] bytes = classes.get(name);
+		if (bytes != null) {
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+		return super.findClass(name);
+	}
+
+	@Override
+	public URL getResource(String name) {
+		URL resource = findResource(name);
+		return resource != null ? resource : super.getResource(name);
+	}
+}
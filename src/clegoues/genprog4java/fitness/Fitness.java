@@ -34,8 +34,10 @@
 package clegoues.genprog4java.fitness;
 
 import clegoues.genprog4java.main.Configuration;
+import clegoues.genprog4java.mut.edits.java.JavaEditOperation;
 import clegoues.genprog4java.rep.Representation;
 import clegoues.util.ConfigurationBuilder;
+import clegoues.util.WorkerPool;
 import junit.framework.Test;
 import junit.framework.TestSuite;
 import org.apache.commons.lang3.tuple.Pair;
@@ -51,9 +53,16 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import static clegoues.util.ConfigurationBuilder.*;
@@ -122,6 +131,22 @@ public class Fitness {
 			.inGroup("Fitness Parameters")
 			.build();
 
+	private static boolean coverageTestSelection = ConfigurationBuilder.of( BOOL_ARG )
+			.withVarName( "coverageTestSelection" )
+			.withDefault( "false" )
+			.withHelp( "count positive tests that never reach an edited statement as passing without running them; "
+					+ "repairs are still checked on every test" )
+			.inGroup( "Fitness Parameters" )
+			.build();
+
+	/** set while a would-be repair is rerun on every test, without coverage test selection */
+	private static final ThreadLocal<Boolean> verifying = new ThreadLocal<Boolean>() {
+		@Override
+		protected Boolean initialValue() {
+			return false;
+		}
+	};
+
 	private enum TestGranularity {
 		METHOD, CLASS
 	};
@@ -163,48 +188,28 @@ public class Fitness {
 	private static int numPositiveTests;
 	private static int numNegativeTests;
 
-	// persistent test cache
-	private static HashMap<Integer, HashMap<TestCase, FitnessValue>> fitnessCache = new HashMap<Integer, HashMap<TestCase, FitnessValue>>();
+	/** file the persistent test cache is kept in */
+	private static String testCacheFile = ConfigurationBuilder.of( STRING )
+			.withVarName( "testCacheFile" )
+			.withDefault( "testcache.log" )
+			.withHelp( "append-only log of test results, shared between runs on the same program" )
+			.inGroup( "Fitness Parameters" )
+			.build();
+
+	// persistent test cache, keyed by variant digest
+	private static FitnessCache fitnessCache = null;
 
-	// FIXME: add some kind of runtime hook to serialize if the process gets killed prematurely.
+	/** makes sure everything in the test cache is on disk.  Results are logged as they come
+	 * in, so this is not needed to keep them if the process dies. */
 	public static void serializeTestCache() {
-		try {
-			FileOutputStream fos = new FileOutputStream("testcache.ser");
-			ObjectOutputStream oos = new ObjectOutputStream(fos);
-			oos.writeObject(Fitness.fitnessCache);
-			oos.close();
-			fos.close();
-			logger.info("Serialized test cache to file testcache.ser");
-		} catch (IOException ioe) {
-			ioe.printStackTrace();
+		if (fitnessCache != null) {
+			fitnessCache.flush();
+			logger.info("Flushed test cache to file " + testCacheFile);
 		}
 	}
 
 	public static void deserializeTestCache(){
-		File fl = new File("testcache.ser");
-		HashMap<Integer, HashMap<TestCase, FitnessValue>> testCache = null;
-		if(fl.isFile() && !clearTestCache){
-			try
-			{
-				FileInputStream fis = new FileInputStream("testcache.ser");
-				ObjectInputStream ois = new ObjectInputStream(fis);
-				testCache = (HashMap) ois.readObject();
-				ois.close();
-				fis.close();
-			}catch(IOException ioe)
-			{
-				ioe.printStackTrace();
-			}catch(ClassNotFoundException c)
-			{
-				System.out.println("Class not found");
-				c.printStackTrace();
-			}
-			System.out.println("Deserialized fitnessCache HashMap");
-		} else {
-			testCache = new HashMap<Integer, HashMap<TestCase, FitnessValue>>();
-		}
-		//System.out.println("hashmap is = " + testCache.entrySet().size() + "  " + testCache.toString());
-		fitnessCache.putAll(testCache);
+		fitnessCache = new FitnessCache(testCacheFile, clearTestCache);
 	}
 	/**
 	 * Loads the tests from specified files, initializes the sample vars to not be null.
@@ -241,6 +246,7 @@ public class Fitness {
 		testSample = new ArrayList<TestCase>(Fitness.positiveTests);
 		restSample = new ArrayList<TestCase>();
 		Fitness.deserializeTestCache();
+		Fitness.loadTestTimings();
 
 		}
 
@@ -409,24 +415,84 @@ public class Fitness {
 		Collections.sort(testModel,Collections.reverseOrder());
 	}
 
-	private boolean singleTestCasePass(Representation rep, TestCase test) {
-		HashMap<TestCase, FitnessValue> thisVariantsFitness = null;
-		// FIXME: things would be better if the fitness cache were actually keyed on rep and not integers.  Also why on earth
-		// is the following "containsKey" typesafe without the hashCode()??? I hate Java. (totally agree)
-		if(fitnessCache.containsKey(rep.hashCode())) {
-			thisVariantsFitness = fitnessCache.get(rep.hashCode());
-			if (thisVariantsFitness.containsKey(test)) {
-				return thisVariantsFitness.get(test).isAllPassed();
+	/**
+	 * whether rep passes each of tests, in order, from the cache where possible.  The tests that aren't cached
+	 * are handed to the variant in one go, so that it can run them as a batch, and their results are all cached.
+	 * @param shortCircuit whether to stop at the first failure
+	 * @return one entry per test up to and including the first failure if shortCircuit, else one per test
+	 */
+	private List<Boolean> testsPass(Representation rep, List<TestCase> tests, boolean shortCircuit) {
+		String digest = rep.getDigest();
+		FitnessValue[] known = new FitnessValue[tests.size()];
+		List<TestCase> toRun = new ArrayList<TestCase>();
+		List<Integer> toRunAt = new ArrayList<Integer>();
+		Set<Integer> edited = Fitness.editedStatements(rep);
+		for (int i = 0; i < tests.size(); i++) {
+			if (edited != null && tests.get(i).getPosOrNeg() == TestCase.TestType.POSITIVE
+					&& Boolean.FALSE.equals(rep.getLocalization().getCoverageMatrix().reaches(
+							tests.get(i).getTestName(), edited))) {
+				// can't see the edits, so it passes as it did on the original.  Not cached: it wasn't run
+				known[i] = new FitnessValue(tests.get(i).getTestName(), 1, 1, 0, true);
+				continue;
+			}
+			known[i] = fitnessCache.get(digest, tests.get(i).getTestName());
+			if (known[i] == null) {
+				toRun.add(tests.get(i));
+				toRunAt.add(i);
+			} else if (shortCircuit && !known[i].isAllPassed()) {
+				break;
+			}
+		}
+		if (!toRun.isEmpty()) {
+			List<FitnessValue> results = rep.testCases(toRun, shortCircuit);
+			for (int i = 0; i < results.size(); i++) {
+				known[toRunAt.get(i)] = results.get(i);
+				if (results.get(i).isTimedOut()) {
+					logger.info(toRun.get(i).getTestName() + " timed out on " + rep.getName()
+							+ " (" + testTimeouts.incrementAndGet() + " timeouts so far)");
+				}
+				// pre_compute doesn't actually run tests; its placeholder results must not outlive the run
+				fitnessCache.put(digest, toRun.get(i).getTestName(), results.get(i),
+						Configuration.editMode != Configuration.EditMode.PRE_COMPUTE);
 			}
-		} else {
-			thisVariantsFitness = new HashMap<TestCase, FitnessValue>();
-			fitnessCache.put(rep.hashCode(), thisVariantsFitness);
 		}
-		FitnessValue thisTest = rep.testCase(test);
-		thisVariantsFitness.put(test, thisTest);
-		return thisTest.isAllPassed();
+		List<Boolean> passed = new ArrayList<Boolean>(tests.size());
+		for (FitnessValue result : known) {
+			if (result == null) {
+				break;
+			}
+			passed.add(result.isAllPassed());
+			if (shortCircuit && !result.isAllPassed()) {
+				break;
+			}
+		}
+		return passed;
 	}
 
+	/**
+	 * statements touched by rep's edits, for coverage test selection; null if selection is off or can't
+	 * be applied to rep
+	 */
+	private static Set<Integer> editedStatements(Representation rep) {
+		if (!coverageTestSelection || verifying.get()
+				|| Configuration.editMode != Configuration.EditMode.GENPROG
+				|| rep.getLocalization() == null || rep.getLocalization().getCoverageMatrix() == null
+				|| rep.getGenome().isEmpty()) {
+			return null;
+		}
+		Set<Integer> edited = new HashSet<Integer>();
+		for (Object edit : rep.getGenome()) {
+			if (!(edit instanceof JavaEditOperation)) {
+				return null;
+			}
+			edited.addAll(((JavaEditOperation) edit).getTouchedAtoms());
+		}
+		return edited;
+	}
+
+	/** tests killed for running too long, over the whole run */
+	private static final AtomicInteger testTimeouts = new AtomicInteger(0);
+
 	/** generates a new random sample of the positive tests. */
 	private static void resample() {
 		Long L = Math.round(sample * Fitness.numPositiveTests);
@@ -453,8 +519,8 @@ public class Fitness {
 	 */
 	private int testPassCount(Representation rep, boolean shortCircuit, List<TestCase> tests) {
 		int numPassed = 0;
-		for (TestCase thisTest : tests) {
-			if (!singleTestCasePass(rep, thisTest)) {
+		for (boolean passed : this.testsPass(rep, tests, shortCircuit)) {
+			if (!passed) {
 				rep.cleanup();
 				if(shortCircuit) {
 					return numPassed;
@@ -476,6 +542,20 @@ public class Fitness {
 	 */
 	int totalVariantsTried = 0;
 	public boolean testToFirstFailure(Representation rep, boolean withModel) {
+		boolean passed = this.firstFailure(rep, withModel);
+		if (passed && coverageTestSelection && !verifying.get()) {
+			logger.info("verifying " + rep.getName() + " on every test");
+			verifying.set(true);
+			try {
+				passed = this.firstFailure(rep, withModel);
+			} finally {
+				verifying.set(false);
+			}
+		}
+		return passed;
+	}
+
+	private boolean firstFailure(Representation rep, boolean withModel) {
 		double fac = Fitness.numPositiveTests * Fitness.negativeTestWeight
 				/ Fitness.numNegativeTests;
 
@@ -491,10 +571,11 @@ public class Fitness {
 		if(withModel) {
 			boolean foundFail = false;
 			int numPassed = 0;
-			for(TestCase thisTest : testModel) {
-				if (!singleTestCasePass(rep, thisTest)) {
+			List<Boolean> passed = this.testsPass(rep, testModel, true);
+			for(int i = 0; i < passed.size(); i++) {
+				if (!passed.get(i)) {
 					rep.cleanup();
-					thisTest.incrementPatchesKilled();
+					testModel.get(i).incrementPatchesKilled();
 					foundFail = true;
 					break;
 				} else {
@@ -534,17 +615,20 @@ public class Fitness {
 	 * tests on the rest as well.
 	 * @param rep variant to test
 	 * @param fac weight to give to negative tests passed for fitness
+	 * @param testSample sampled positive tests
+	 * @param restSample positive tests left out of the sample
 	 * @return Pair<sample fitness, total fitness>; returns both mostly so we can track fitness
 	 * behavior if desired.
 	 */
-	private Pair<Double,Double> testFitnessSample(Representation rep, double fac) {
+	private Pair<Double,Double> testFitnessSample(Representation rep, double fac,
+			List<TestCase> testSample, List<TestCase> restSample) {
 		int numNegPassed = this.testPassCount(rep,false, Fitness.negativeTests);
-		int numPosPassed = this.testPassCount(rep,false, Fitness.testSample);
+		int numPosPassed = this.testPassCount(rep,false, testSample);
 		int numRestPassed = 0;
 		if((numNegPassed == Fitness.numNegativeTests) &&
 				(numPosPassed == testSample.size())) {
 			if(Fitness.sample < 1.0) { // restSample won't be null by definition here
-				numRestPassed = this.testPassCount(rep, false, Fitness.restSample);
+				numRestPassed = this.testPassCount(rep, false, restSample);
 			}
 		}
 		double sampleFitness = fac * numNegPassed + numPosPassed;
@@ -561,13 +645,13 @@ public class Fitness {
 	private Pair<Double, Double> testFitnessFull(Representation rep,
 			double fac) {
 		double fitness = 0.0;
-		for (TestCase thisTest : Fitness.positiveTests) {
-			if (singleTestCasePass(rep, thisTest)) {
+		for (boolean passed : this.testsPass(rep, Fitness.positiveTests, false)) {
+			if (passed) {
 				fitness += 1.0;
 			}
 		}
-		for (TestCase thisTest : Fitness.negativeTests) {
-			if (singleTestCasePass(rep, thisTest)) {
+		for (boolean passed : this.testsPass(rep, Fitness.negativeTests, false)) {
+			if (passed) {
 				fitness += fac;
 			}
 		}
@@ -597,27 +681,199 @@ public class Fitness {
 
 		double maxFitness = Fitness.numPositiveTests
 				+ ((Fitness.numNegativeTests * fac));
+		Boolean alreadyEvaluated = concurrentResults.remove(rep);
+		if (alreadyEvaluated != null) {
+			return alreadyEvaluated;
+		}
 		double curFit = rep.getFitness();
 		if (curFit > -1.0) {
 			logger.info("\t gen: " + generation + " " + curFit + " " + rep.getName() + " (stored at: " + rep.getVariantFolder() + ")");
 			return !(curFit < maxFitness);
 		}
-		Pair<Double, Double> fitnessPair =  Pair.of(-1.0, -1.0);
+		this.maybeResample(generation);
+		return this.evaluate(generation, rep, fac, maxFitness, Fitness.testSample, Fitness.restSample);
+	}
+
+	/** draws a new sample if the sampling strategy calls for one at this point */
+	private void maybeResample(int generation) {
 		if (Fitness.sample < 1.0) {
 			if (((Fitness.sampleStrategy == "generation") && (Fitness.generation != generation)) ||
 					(Fitness.sampleStrategy == "variant")) {
 				Fitness.generation = generation;
 				Fitness.resample();
 			}
-			fitnessPair = this.testFitnessSample(rep, fac);
+		}
+	}
+
+	private boolean evaluate(int generation, Representation rep, double fac, double maxFitness,
+			List<TestCase> testSample, List<TestCase> restSample) {
+		Pair<Double, Double> fitnessPair =  Pair.of(-1.0, -1.0);
+		if (Fitness.sample < 1.0) {
+			fitnessPair = this.testFitnessSample(rep, fac, testSample, restSample);
 		} else {
 			fitnessPair = this.testFitnessFull(rep, fac);
 		}
+		boolean repair = !(fitnessPair.getLeft() < maxFitness);
+		if (repair && coverageTestSelection && !verifying.get()) {
+			// the tests we skipped are only assumed to pass; make sure before calling it a repair
+			logger.info("verifying " + rep.getName() + " on every test");
+			verifying.set(true);
+			try {
+				return this.evaluate(generation, rep, fac, maxFitness, testSample, restSample);
+			} finally {
+				verifying.set(false);
+			}
+		}
 		logger.info("\t gen: " + generation + " " + fitnessPair.getLeft() + " " + rep.getName()+ " (stored at: " + rep.getVariantFolder() + ")");
 		rep.setFitness(fitnessPair.getRight());
 		rep.cleanup();
-		return !(fitnessPair.getLeft() < maxFitness);
+		return repair;
+	}
+
+	/** results of {@link #testFitnessConcurrently}, handed back by {@link #testFitness(int, Representation)} */
+	private final Map<Representation, Boolean> concurrentResults =
+			Collections.synchronizedMap(new IdentityHashMap<Representation, Boolean>());
 
+	/**
+	 * Evaluates a batch of variants across {@link clegoues.util.WorkerPool}.  Callers still walk
+	 * the population in order and call {@link #testFitness(int, Representation)} on each variant,
+	 * which then just returns the result computed here.
+	 * Everything that consumes randomness or hands out names (test samples, variant folders) happens
+	 * here on the calling thread, in population order, so results for a given seed are the same
+	 * as with a single worker.
+	 *
+	 * @param generation what generation we're on.
+	 * @param reps variants to test.
+	 */
+	public void testFitnessConcurrently(int generation, List<? extends Representation> reps) {
+		this.testPopulation(generation, reps);
+		if (!WorkerPool.isParallel()) {
+			return;
+		}
+		final double fac = Fitness.numPositiveTests * Fitness.negativeTestWeight
+				/ Fitness.numNegativeTests;
+		final double maxFitness = Fitness.numPositiveTests
+				+ ((Fitness.numNegativeTests * fac));
+		final int gen = generation;
+		List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+		final List<Representation> evaluated = new ArrayList<Representation>();
+		for (Representation rep : reps) {
+			if (rep.getFitness() > -1.0 || concurrentResults.containsKey(rep)) {
+				continue;
+			}
+			this.maybeResample(generation);
+			final Representation thisRep = rep;
+			final List<TestCase> thisSample = new ArrayList<TestCase>(Fitness.testSample);
+			final List<TestCase> thisRest = new ArrayList<TestCase>(Fitness.restSample);
+			rep.reserveVariantFolder();
+			evaluated.add(rep);
+			tasks.add(new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					return evaluate(gen, thisRep, fac, maxFitness, thisSample, thisRest);
+				}
+			});
+		}
+		List<Boolean> results = WorkerPool.invokeAll(tasks);
+		for (int i = 0; i < evaluated.size(); i++) {
+			concurrentResults.put(evaluated.get(i), results.get(i));
+		}
+	}
+
+	/**
+	 * Runs the tests every variant in reps is sure to need (the negative tests and the current positive sample)
+	 * on all of them at once, if the representation can (see {@link Representation#testPopulation}), and
+	 * leaves the results in the fitness cache.  Evaluating each variant then only runs what is still missing.
+	 * Under the variant sampling strategy the sample isn't known yet, so only the negative tests go.
+	 */
+	private void testPopulation(int generation, List<? extends Representation> reps) {
+		if (Configuration.editMode != Configuration.EditMode.EXISTING || reps.isEmpty()) {
+			return;
+		}
+		List<TestCase> tests = new ArrayList<TestCase>(Fitness.negativeTests);
+		if (Fitness.sample >= 1.0) {
+			tests.addAll(Fitness.positiveTests);
+		} else if (!"variant".equals(Fitness.sampleStrategy)) {
+			this.maybeResample(generation);
+			tests.addAll(Fitness.testSample);
+		}
+		List<Representation> toRun = new ArrayList<Representation>();
+		Set<String> digests = new HashSet<String>();
+		for (Representation rep : reps) {
+			if (rep.getFitness() > -1.0 || concurrentResults.containsKey(rep) || !digests.add(rep.getDigest())) {
+				continue;
+			}
+			for (TestCase test : tests) {
+				if (fitnessCache.get(rep.getDigest(), test.getTestName()) == null) {
+					toRun.add(rep);
+					break;
+				}
+			}
+		}
+		if (toRun.isEmpty()) {
+			return;
+		}
+		List<Map<String, FitnessValue>> results = toRun.get(0).testPopulation(toRun, tests);
+		if (results == null) {
+			return;
+		}
+		for (int i = 0; i < toRun.size(); i++) {
+			String digest = toRun.get(i).getDigest();
+			for (TestCase test : tests) {
+				FitnessValue result = results.get(i).get(test.toString());
+				if (result != null) {
+					fitnessCache.put(digest, test.getTestName(), result, true);
+				}
+			}
+		}
+	}
+
+	/**
+	 * saves how long each test took on the original program (see {@link TestCase#getBaselineMillis()}) next to
+	 * the positive test list, so that runs that skip the sanity check can still size their test timeouts.
+	 */
+	public static void printTestTimings(List<TestCase> tests) {
+		String path = Fitness.posTestFile + ".timings";
+		try (PrintWriter printer = new PrintWriter(new FileWriter(path, false))) {
+			for (TestCase test : tests) {
+				if (test.getBaselineMillis() >= 0) {
+					printer.println(test.getTestName() + "\t" + test.getBaselineMillis());
+				}
+			}
+		} catch (IOException e) {
+			logger.error("Error writing test timings to " + path);
+		}
+	}
+
+	private static void loadTestTimings() {
+		File timings = new File(Fitness.posTestFile + ".timings");
+		if (!timings.exists()) {
+			return;
+		}
+		Map<String, Long> byTest = new HashMap<String, Long>();
+		try (BufferedReader br = new BufferedReader(new FileReader(timings))) {
+			String line;
+			while ((line = br.readLine()) != null) {
+				String[] fields = line.split("\t");
+				if (fields.length == 2) {
+					try {
+						byTest.put(fields[0], Long.parseLong(fields[1].trim()));
+					} catch (NumberFormatException e) {
+					}
+				}
+			}
+		} catch (IOException e) {
+			logger.error("failed to read test timings from " + timings);
+			return;
+		}
+		for (List<TestCase> tests : Arrays.asList(Fitness.positiveTests, Fitness.negativeTests)) {
+			for (TestCase test : tests) {
+				Long millis = byTest.get(test.getTestName());
+				if (millis != null) {
+					test.setBaselineMillis(millis);
+				}
+			}
+		}
 	}
 
 	/** debug/convenience functionality; saves the tests that should be considered in scope.
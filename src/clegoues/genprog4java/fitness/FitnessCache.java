@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2014-2015, 
+ *  Claire Le Goues     <clegoues@cs.cmu.edu>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package clegoues.genprog4java.fitness;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Test results keyed by variant digest (see {@link clegoues.genprog4java.rep.Representation#getDigest()})
+ * and test name, backed by an append-only log.  Each result is appended as soon as it is known, one
+ * line per result:
+ *
+ * <pre>digest &lt;tab&gt; test &lt;tab&gt; allPassed &lt;tab&gt; #tests &lt;tab&gt; #passed &lt;tab&gt; #failed &lt;tab&gt; crc32</pre>
+ *
+ * so a killed run loses nothing it has already reported.  Lines that are incomplete or fail their checksum
+ * (a run died mid-write) are skipped on load.  Appends happen under a file lock, and a lookup that misses
+ * first picks up whatever other runs have appended since, so several runs on the same bug can share one log.
+ * A test that timed out is only remembered for the current run: whether it finishes in time depends on how
+ * loaded the machine was, so later runs try it again rather than trusting the timeout.
+ */
+public class FitnessCache {
+	protected static Logger logger = Logger.getLogger(FitnessCache.class);
+
+	private final Map<String, Map<String, FitnessValue>> cache = new ConcurrentHashMap<String, Map<String, FitnessValue>>();
+
+	private final File file;
+	private FileChannel channel = null;
+	/** how far into the log we have read; always just past a newline */
+	private long readOffset = 0;
+
+	public FitnessCache(String filename, boolean clear) {
+		this.file = new File(filename);
+		if (clear && file.exists() && !file.delete()) {
+			logger.error("could not clear test cache " + filename);
+		}
+		try {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.READ, StandardOpenOption.WRITE);
+			try (FileLock lock = channel.lock()) {
+				// a run that died mid-write leaves a partial last line; don't glue our first record onto it
+				long size = channel.size();
+				if (size > 0) {
+					ByteBuffer last = ByteBuffer.allocate(1);
+					channel.read(last, size - 1);
+					if (last.get(0) != '\n') {
+						channel.write(ByteBuffer.wrap(new byte[] { '\n' }), size);
+					}
+				}
+			}
+		} catch (IOException e) {
+			logger.error("cannot open test cache " + filename + ", results will not be persisted: " + e.getMessage());
+			channel = null;
+		}
+		this.refresh();
+		logger.info("Loaded cached results for " + cache.size() + " variants from " + filename);
+	}
+
+	/** @return the cached result, or null if this variant has not been run on this test */
+	public FitnessValue get(String digest, String testName) {
+		FitnessValue value = this.lookup(digest, testName);
+		if (value == null && this.refresh()) {
+			value = this.lookup(digest, testName);
+		}
+		return value;
+	}
+
+	private FitnessValue lookup(String digest, String testName) {
+		Map<String, FitnessValue> thisVariantsFitness = cache.get(digest);
+		return thisVariantsFitness == null ? null : thisVariantsFitness.get(testName);
+	}
+
+	/**
+	 * @param persist whether to append the result to the log, rather than just remembering it for this run
+	 */
+	public void put(String digest, String testName, FitnessValue value, boolean persist) {
+		this.remember(digest, testName, value);
+		if (persist && !value.isTimedOut()) {
+			this.append(digest, testName, value);
+		}
+	}
+
+	private void remember(String digest, String testName, FitnessValue value) {
+		Map<String, FitnessValue> thisVariantsFitness = cache.get(digest);
+		if (thisVariantsFitness == null) {
+			cache.putIfAbsent(digest, new ConcurrentHashMap<String, FitnessValue>());
+			thisVariantsFitness = cache.get(digest);
+		}
+		thisVariantsFitness.put(testName, value);
+	}
+
+	private static String checksum(String record) {
+		CRC32 crc = new CRC32();
+		crc.update(record.getBytes(StandardCharsets.UTF_8));
+		return Long.toHexString(crc.getValue());
+	}
+
+	private synchronized void append(String digest, String testName, FitnessValue value) {
+		if (channel == null) {
+			return;
+		}
+		String record = digest + "\t" + testName + "\t" + (value.isAllPassed() ? 1 : 0) + "\t"
+				+ value.getNumberTests() + "\t" + value.getNumTestsPassed() + "\t" + value.getNumTestsFailed();
+		ByteBuffer line = ByteBuffer.wrap((record + "\t" + checksum(record) + "\n").getBytes(StandardCharsets.UTF_8));
+		try (FileLock lock = channel.lock()) {
+			long end = channel.size();
+			while (line.hasRemaining()) {
+				end += channel.write(line, end);
+			}
+		} catch (IOException e) {
+			logger.error("failed to persist test result for " + testName + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * reads whatever has been appended to the log since we last looked, by us or by other runs.
+	 * @return whether anything new was read
+	 */
+	private synchronized boolean refresh() {
+		if (channel == null) {
+			return false;
+		}
+		try {
+			long size = channel.size();
+			if (size <= readOffset) {
+				return false;
+			}
+			ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(size - readOffset, Integer.MAX_VALUE));
+			while (buffer.hasRemaining() && channel.read(buffer, readOffset + buffer.position()) > 0) {
+			}
+			String chunk = new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+			int end = chunk.lastIndexOf('\n');
+			if (end < 0) {
+				return false;
+			}
+			for (String line : chunk.substring(0, end).split("\n")) {
+				this.parse(line);
+			}
+			readOffset += chunk.substring(0, end + 1).getBytes(StandardCharsets.UTF_8).length;
+			return true;
+		} catch (IOException e) {
+			logger.error("failed to read test cache: " + e.getMessage());
+			return false;
+		}
+	}
+
+	private void parse(String line) {
+		int lastTab = line.lastIndexOf('\t');
+		if (lastTab < 0) {
+			return;
+		}
+		String record = line.substring(0, lastTab);
+		if (!checksum(record).equals(line.substring(lastTab + 1))) {
+			return;
+		}
+		String[] fields = record.split("\t");
+		if (fields.length != 6) {
+			return;
+		}
+		try {
+			FitnessValue value = new FitnessValue(fields[1], Integer.parseInt(fields[3]),
+					Integer.parseInt(fields[4]), Integer.parseInt(fields[5]), fields[2].equals("1"));
+			this.remember(fields[0], fields[1], value);
+		} catch (NumberFormatException e) {
+		}
+	}
+
+	/** forces everything appended so far out to the disk */
+	public synchronized void flush() {
+		if (channel == null) {
+			return;
+		}
+		try {
+			channel.force(false);
+		} catch (IOException e) {
+			logger.error("failed to flush test cache: " + e.getMessage());
+		}
+	}
+}
@@ -41,6 +41,8 @@ public class FitnessValue implements Serializable {
 	private int numTestsPassed = 0;
 	private int numTestsFailed = 0;
 	private boolean allPassed = false; 
+	/** the test was killed for running too long; it counts as failed */
+	private boolean timedOut = false;
 	
 	public FitnessValue() { }
 	
@@ -86,5 +88,13 @@ public class FitnessValue implements Serializable {
 		this.numTestsFailed = numTestsFailed;
 	}
 
+	public boolean isTimedOut() {
+		return timedOut;
+	}
+
+	public void setTimedOut(boolean timedOut) {
+		this.timedOut = timedOut;
+	}
+
 	
 }
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2014-2015, 
+ *  Claire Le Goues     <clegoues@cs.cmu.edu>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package clegoues.genprog4java.fitness;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+
+/**
+ * Runs a list of tests in one JVM under the jacoco agent, keeping each test's coverage apart.  Like
+ * {@link JUnitTestRunner}, this must be compiled into the runner jar.
+ *
+ * Usage: JUnitCoverageRunner sessionsFile test [test]...
+ *
+ * Before each test the agent's probes are reset and its session id is set to the test; after it,
+ * the execution data is appended to sessionsFile.  The file ends up holding one jacoco session per
+ * test, which {@link clegoues.genprog4java.localization.DefaultLocalization} reads back directly.
+ * The agent should be started with output=none; the runner collects the data itself.
+ * Results are reported as by JUnitTestRunner --batch.
+ *
+ * Classes are only initialized once, so code that runs in static initializers is credited to the
+ * first test that triggers it.
+ */
+public class JUnitCoverageRunner {
+
+	public static void main(String[] args) {
+		TestResultChannel results = TestResultChannel.open();
+		try {
+			// the agent's runtime is on the system classpath only when we're run with -javaagent
+			Class<?> rt = Class.forName("org.jacoco.agent.rt.RT");
+			Object agent = rt.getMethod("getAgent").invoke(null);
+			Class<?> agentInterface = Class.forName("org.jacoco.agent.rt.IAgent");
+			Method reset = agentInterface.getMethod("reset");
+			Method setSessionId = agentInterface.getMethod("setSessionId", String.class);
+			Method getExecutionData = agentInterface.getMethod("getExecutionData", boolean.class);
+
+			OutputStream sessions = new BufferedOutputStream(new FileOutputStream(args[0]));
+			for (int i = 1; i < args.length; i++) {
+				String testName = args[i].trim();
+				reset.invoke(agent);
+				setSessionId.invoke(agent, testName);
+				System.out.println("[TEST]:" + testName);
+				JUnitTestRunner.runOne(testName, results);
+				sessions.write((byte[]) getExecutionData.invoke(agent, true));
+				sessions.flush();
+			}
+			sessions.close();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		Runtime.getRuntime().exit(0);
+	}
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2014-2015, 
+ *  Claire Le Goues     <clegoues@cs.cmu.edu>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package clegoues.genprog4java.fitness;
+
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Request;
+import org.junit.runner.Result;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the same tests on a whole population of EXISTING-mode variants in one JVM.  Every such variant is
+ * the merged program with a different set of varexc.GlobalOptions switched on, so there is nothing to
+ * compile or load from disk per variant.  Like {@link JUnitTestRunner}, this must be compiled into the runner jar.
+ *
+ * Usage: JUnitPopulationRunner [--shared-loader] requestFile test [test]...
+ *
+ * The first line of requestFile is the classpath of the merged program (variant classes, tests and the
+ * project), which must not be on the runner's own classpath.  Every other line is one variant:
+ *
+ * <pre>id &lt;tab&gt; space-separated variant option ids</pre>
+ *
+ * with the ids as given by {@link VariantOptions#ids}.
+ *
+ * Each variant gets a fresh class loader over that classpath, so its options start out false and no
+ * static state leaks from one variant to the next.  The loader looks in that classpath before its parent
+ * (see {@link ChildFirstClassLoader}), so a copy of a project class on the runner's classpath can't stand
+ * in for the variant's; JUnit and the runner are loaded once.  With
+ * --shared-loader, the program is loaded once too, and {@link VariantOptions#reset(ClassLoader)} clears
+ * the options and hoisted fields in between variants instead; that is only sound for programs whose tests
+ * leave no other static state behind.
+ *
+ * Results are reported on the {@link TestResultChannel} under "id &lt;tab&gt; test", or printed as by
+ * JUnitTestRunner --batch with the same names after [TEST]:.
+ */
+public class JUnitPopulationRunner {
+
+	public static void main(String[] args) {
+		TestResultChannel results = TestResultChannel.open();
+		boolean shared = args.length > 0 && args[0].equals("--shared-loader");
+		if (shared) {
+			args = Arrays.copyOfRange(args, 1, args.length);
+		}
+		URLClassLoader sharedLoader = null;
+		try {
+			BufferedReader request = new BufferedReader(new FileReader(args[0]));
+			List<URL> urls = new ArrayList<URL>();
+			for (String entry : request.readLine().split(File.pathSeparator)) {
+				if (!entry.isEmpty()) {
+					urls.add(new File(entry).toURI().toURL());
+				}
+			}
+			URL[] classPath = urls.toArray(new URL[urls.size()]);
+			if (shared) {
+				sharedLoader = new ChildFirstClassLoader(classPath, JUnitPopulationRunner.class.getClassLoader());
+			}
+			String line;
+			while ((line = request.readLine()) != null) {
+				String[] fields = line.split("\t", -1);
+				if (fields.length != 2) {
+					continue;
+				}
+				int[] options = VariantOptions.parseIds(fields[1]);
+				if (shared) {
+					VariantOptions.reset(sharedLoader);
+					runVariant(fields[0], options, sharedLoader, args, results);
+				} else {
+					URLClassLoader loader = new ChildFirstClassLoader(classPath, JUnitPopulationRunner.class.getClassLoader());
+					try {
+						runVariant(fields[0], options, loader, args, results);
+					} finally {
+						loader.close();
+					}
+				}
+			}
+			request.close();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		Runtime.getRuntime().exit(0);
+	}
+
+	private static void runVariant(String id, int[] options, ClassLoader loader, String[] args,
+			TestResultChannel results) {
+		Thread current = Thread.currentThread();
+		ClassLoader previous = current.getContextClassLoader();
+		try {
+			current.setContextClassLoader(loader);
+			if (options.length > 0) {
+				VariantOptions.enable(options, loader);
+			}
+			for (int i = 1; i < args.length; i++) {
+				runOne(id + "\t" + args[i].trim(), args[i].trim(), loader, results);
+			}
+		} catch (Throwable e) {
+			// no answers for this variant; it gets run on its own
+			e.printStackTrace();
+		} finally {
+			current.setContextClassLoader(previous);
+		}
+	}
+
+	private static void runOne(String key, String testName, ClassLoader loader, TestResultChannel results) {
+		System.out.println("[TEST]:" + key);
+		try {
+			String clazzName = testName;
+			String methodName = null;
+			if (clazzName.contains("::")) {
+				String[] intermed = clazzName.split("::");
+				clazzName = intermed[0];
+				methodName = intermed[1];
+			}
+			Class<?> testClazz = Class.forName(clazzName, true, loader);
+			Request testRequest = null;
+			if (methodName == null) {
+				testRequest = Request.classes(testClazz);
+			} else {
+				testRequest = Request.method(testClazz, methodName);
+			}
+
+			Result r = new JUnitCore().run(testRequest);
+			if (results != null) {
+				results.write(key, r);
+			}
+			System.out.println("[SUCCESS]:" + r.wasSuccessful());
+			System.out.println("[TOTAL]:" + r.getRunCount());
+			System.out.println("[FAILURE]:" + r.getFailureCount());
+		} catch (Throwable e) {
+			e.printStackTrace();
+			if (results != null) {
+				results.write(key, false, 0, 0, e.toString());
+			}
+			System.out.println("[SUCCESS]:false");
+		}
+	}
+}
@@ -56,8 +56,25 @@ public class JUnitTestRunner {
 	 * name (via ::), this will notice, but it will still run the full class.
 	 * 
 	 *  Prints results to console.
+	 *
+	 *  With --batch [--stop-on-failure] first, the remaining arguments are all tests, run one after
+	 *  the other in this JVM.  Each gets a [TEST]:name line followed by its own
+	 *  [SUCCESS]/[TOTAL]/[FAILURE] lines; with --stop-on-failure, nothing after the first failing test is run.
+	 *
+	 *  If the genprog4java.results property names a {@link TestResultChannel}, results go there instead.
 	 */
 	public static void main(String[] args) {
+		TestResultChannel results = TestResultChannel.open();
+		if (args.length > 0 && args[0].equals("--batch")) {
+			boolean stopOnFailure = args.length > 1 && args[1].equals("--stop-on-failure");
+			for (int i = stopOnFailure ? 2 : 1; i < args.length; i++) {
+				System.out.println("[TEST]:" + args[i].trim());
+				if (!runOne(args[i].trim(), results) && stopOnFailure) {
+					break;
+				}
+			}
+			Runtime.getRuntime().exit(0);
+		}
 		try {
 			String clazzName = args[0].trim();
 			Request testRequest = null;
@@ -82,6 +99,9 @@ public class JUnitTestRunner {
 
 			JUnitCore runner = new JUnitCore();
 			Result r = runner.run(testRequest);
+			if (results != null) {
+				results.write(args[0].trim(), r);
+			}
 
 			System.out.println("[SUCCESS]:" + r.wasSuccessful());
 			System.out.println("[TOTAL]:" + r.getRunCount());
@@ -94,12 +114,54 @@ public class JUnitTestRunner {
 
 			System.out.println("\n" + r.getFailures().toString());
 
-		} catch (Exception e) {
+		} catch (Throwable e) {
+			// e.g., the test class doesn't load or initialize; still report the test as failed
 			e.printStackTrace();
+			if (results != null && args.length > 0) {
+				results.write(args[0].trim(), false, 0, 0, e.toString());
+			}
+			System.out.println("[SUCCESS]:false");
 		}
 		Runtime.getRuntime().exit(0);
 	}
 
+	static boolean runOne(String testName, TestResultChannel results) {
+		try {
+			String clazzName = testName;
+			String methodName = null;
+			if (clazzName.contains("::")) {
+				String[] intermed = clazzName.split("::");
+				clazzName = intermed[0];
+				methodName = intermed[1];
+			}
+			Class<?> testClazz = Class.forName(clazzName);
+			Request testRequest = null;
+			if (methodName == null) {
+				testRequest = Request.classes(testClazz);
+			} else {
+				testRequest = Request.method(testClazz, methodName);
+			}
+			Result r = new JUnitCore().run(testRequest);
+			if (results != null) {
+				results.write(testName, r);
+			}
+
+			System.out.println("[SUCCESS]:" + r.wasSuccessful());
+			System.out.println("[TOTAL]:" + r.getRunCount());
+			System.out.println("[FAILURE]:" + r.getFailureCount());
+			for (Failure f : r.getFailures()) {
+				System.out.println(f.toString().replace('\n', ' '));
+			}
+			return r.wasSuccessful();
+		} catch (Throwable e) {
+			e.printStackTrace();
+			if (results != null) {
+				results.write(testName, false, 0, 0, e.toString());
+			}
+			System.out.println("[SUCCESS]:false");
+			return false;
+		}
+	}
 }
 
 class Listener extends RunListener {
@@ -38,14 +38,12 @@ import org.junit.runner.Request;
 import org.junit.runner.Result;
 import org.junit.runner.notification.Failure;
 
-import java.lang.reflect.Field;
-import java.util.Arrays;
-
 /**
  * Based on {@link JUnitTestRunner}, with the addition to specify which variants (as boolean flags) to enabled
  * in the merged version of all variants.
  *
- * Each argument starting at position 1 specifies one variant that should be enabled.
+ * Each argument starting at position 1 is the id of one variant that should be enabled, as given by
+ * {@link VariantOptions#ids}.
  *
  * @author chupanw
  */
@@ -56,9 +54,10 @@ public class JUnitTestRunnerWithPool {
 	 * tests file listing positive or negative tests).  If the className also specifies a method 
 	 * name (via ::), this will notice, but it will still run the full class.
 	 * 
-	 *  Prints results to console.
+	 *  Prints results to console, or to the {@link TestResultChannel} named by the genprog4java.results property.
 	 */
 	public static void main(String[] args) {
+		TestResultChannel results = TestResultChannel.open();
 		try {
 			String clazzName = args[0].trim();
 			Request testRequest = null;
@@ -79,7 +78,10 @@ public class JUnitTestRunnerWithPool {
 			}
 
 			// enable variants
-			String[] variants = Arrays.copyOfRange(args, 1, args.length);
+			int[] variants = new int[args.length - 1];
+			for (int i = 1; i < args.length; i++) {
+				variants[i - 1] = Integer.parseInt(args[i].trim());
+			}
 			enableVariants(variants);
 
 			System.out.println("Requested #: "
@@ -87,6 +89,9 @@ public class JUnitTestRunnerWithPool {
 
 			JUnitCore runner = new JUnitCore();
 			Result r = runner.run(testRequest);
+			if (results != null) {
+				results.write(args[0].trim(), r);
+			}
 
 			System.out.println("[SUCCESS]:" + r.wasSuccessful());
 			System.out.println("[TOTAL]:" + r.getRunCount());
@@ -105,15 +110,10 @@ public class JUnitTestRunnerWithPool {
 		Runtime.getRuntime().exit(0);
 	}
 
-	private static void enableVariants(String[] variants) {
+	private static void enableVariants(int[] variants) {
 		try {
-			Class<?> GlobalOptions = Class.forName("varexc.GlobalOptions");
-			for (String v : variants) {
-				Field f = GlobalOptions.getDeclaredField(v);
-				f.setAccessible(true);
-				f.set(null, true);
-			}
-		} catch (ClassNotFoundException | NoSuchFieldException | IllegalAccessException e) {
+			VariantOptions.enable(variants, JUnitTestRunnerWithPool.class.getClassLoader());
+		} catch (Exception e) {
 			e.printStackTrace();
 			throw new RuntimeException(e);
 		}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2014-2015, 
+ *  Claire Le Goues     <clegoues@cs.cmu.edu>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package clegoues.genprog4java.fitness;
+
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Request;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Long-lived counterpart of {@link JUnitTestRunner} and {@link JUnitTestRunnerWithPool}.  Like them, this
+ * must be compiled into the runner jar.  Rather than running one test and exiting, it reads requests from stdin,
+ * one per line:
+ *
+ * <pre>RUN &lt;tab&gt; classpath &lt;tab&gt; test &lt;tab&gt; space-separated variant option ids [&lt;tab&gt; variant]</pre>
+ *
+ * where the ids are as given by {@link VariantOptions#ids}, and answers each on stdout with the same
+ * [SUCCESS]/[TOTAL]/[FAILURE] lines as the one-shot runners, followed by [END].  QUIT (or end of input) shuts it down.
+ *
+ * Variants compiled in memory are sent ahead of their tests as
+ *
+ * <pre>CLASSES &lt;tab&gt; variant &lt;tab&gt; n</pre>
+ *
+ * followed by n lines of binary class name &lt;tab&gt; base64 class bytes, and answered with [END].  A RUN
+ * naming that variant then loads those classes before anything on its classpath.  Only the last few variants'
+ * classes are kept; a request naming one that isn't (any more) is answered with [ERROR]: unknown variant, so
+ * that the client can send its classes again.
+ *
+ * Several tests on the same variant can be run as one request:
+ *
+ * <pre>BATCH &lt;tab&gt; classpath &lt;tab&gt; option ids &lt;tab&gt; variant &lt;tab&gt; stop-on-failure &lt;tab&gt; test [&lt;tab&gt; test]...</pre>
+ *
+ * Every test in the batch gets a [TEST]:name line followed by its own results, as with
+ * {@link JUnitTestRunner}'s --batch mode; the whole batch shares one class loader.
+ *
+ * Each request gets a fresh child-first class loader ({@link ChildFirstClassLoader}) over the given classpath
+ * (variant classes, tests and the project), so classes and their static state are not shared between variants,
+ * even if the project is also on the server's own classpath.  JUnit, hamcrest and the runner itself come from
+ * the server's classpath and are only loaded once.
+ * Anything the tests print on System.out is dropped so that it can't get mixed up with the answers.
+ *
+ * @see TestServerClient
+ */
+public class JUnitTestServer {
+
+	static final String UNKNOWN_VARIANT = "[ERROR]: unknown variant ";
+
+	/** in-memory classes of the last few variants we were sent */
+	private static final Map<String, Map<String, byte[]>> variantClasses =
+			new LinkedHashMap<String, Map<String, byte[]>>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Map<String, byte[]>> eldest) {
+					return size() > 8;
+				}
+			};
+
+	public static void main(String[] args) {
+		PrintStream answers = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+		}));
+		try {
+			BufferedReader requests = new BufferedReader(new InputStreamReader(System.in));
+			String line;
+			while ((line = requests.readLine()) != null) {
+				if (line.trim().equals("QUIT")) {
+					break;
+				}
+				String[] fields = line.split("\t", -1);
+				if (fields.length == 3 && fields[0].equals("CLASSES")) {
+					readClasses(fields[1], Integer.parseInt(fields[2].trim()), requests);
+				} else if (fields.length > 5 && fields[0].equals("BATCH")) {
+					List<String> tests = new ArrayList<String>();
+					for (int i = 5; i < fields.length; i++) {
+						tests.add(fields[i].trim());
+					}
+					if (isUnknown(fields[3])) {
+						answers.println(UNKNOWN_VARIANT + fields[3]);
+					} else {
+						runTests(fields[1], tests, fields[2], variantClasses.get(fields[3]),
+								Boolean.parseBoolean(fields[4].trim()), answers, true);
+					}
+				} else if (fields.length < 3 || !fields[0].equals("RUN")) {
+					answers.println("[ERROR]: malformed request " + line);
+				} else if (fields.length > 4 && isUnknown(fields[4])) {
+					answers.println(UNKNOWN_VARIANT + fields[4]);
+				} else {
+					Map<String, byte[]> classes = null;
+					if (fields.length > 4 && !fields[4].isEmpty()) {
+						classes = variantClasses.get(fields[4]);
+					}
+					runTest(fields[1], fields[2].trim(), fields.length > 3 ? fields[3] : "", classes, answers);
+				}
+				answers.println("[END]");
+				answers.flush();
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		Runtime.getRuntime().exit(0);
+	}
+
+	/** whether a request names a variant whose classes we don't have, rather than running it as the original */
+	private static boolean isUnknown(String variant) {
+		return !variant.isEmpty() && !variantClasses.containsKey(variant);
+	}
+
+	private static void readClasses(String variant, int count, BufferedReader requests) throws IOException {
+		Map<String, byte[]> classes = new HashMap<String, byte[]>();
+		for (int i = 0; i < count; i++) {
+			String[] entry = requests.readLine().split("\t");
+			classes.put(entry[0], Base64.getDecoder().decode(entry[1]));
+		}
+		variantClasses.put(variant, classes);
+	}
+
+	private static void runTest(String classPath, String testName, String options,
+			Map<String, byte[]> classes, PrintStream answers) {
+		runTests(classPath, Collections.singletonList(testName), options, classes, false, answers, false);
+	}
+
+	private static void runTests(String classPath, List<String> testNames, String options,
+			Map<String, byte[]> classes, boolean stopOnFailure, PrintStream answers, boolean batch) {
+		Thread current = Thread.currentThread();
+		ClassLoader previous = current.getContextClassLoader();
+		URLClassLoader loader = null;
+		try {
+			List<URL> urls = new ArrayList<URL>();
+			for (String entry : classPath.split(File.pathSeparator)) {
+				if (!entry.isEmpty()) {
+					urls.add(new File(entry).toURI().toURL());
+				}
+			}
+			loader = new ChildFirstClassLoader(urls.toArray(new URL[urls.size()]), JUnitTestServer.class.getClassLoader(),
+					classes != null ? classes : Collections.<String, byte[]>emptyMap());
+			current.setContextClassLoader(loader);
+			int[] ids = VariantOptions.parseIds(options);
+			if (ids.length > 0) {
+				VariantOptions.enable(ids, loader);
+			}
+			for (String testName : testNames) {
+				if (batch) {
+					answers.println("[TEST]:" + testName);
+				}
+				if (!runOne(testName, loader, answers) && stopOnFailure) {
+					break;
+				}
+			}
+		} catch (Throwable e) {
+			e.printStackTrace();
+			answers.println("[SUCCESS]:false");
+		} finally {
+			current.setContextClassLoader(previous);
+			if (loader != null) {
+				try {
+					loader.close();
+				} catch (Exception e) {
+				}
+			}
+		}
+	}
+
+	private static boolean runOne(String testName, ClassLoader loader, PrintStream answers) {
+		try {
+			String clazzName = testName;
+			String methodName = null;
+			if (clazzName.contains("::")) {
+				String[] intermed = clazzName.split("::");
+				clazzName = intermed[0];
+				methodName = intermed[1];
+			}
+			Class<?> testClazz = Class.forName(clazzName, true, loader);
+			Request testRequest = null;
+			if (methodName == null) {
+				testRequest = Request.classes(testClazz);
+			} else {
+				testRequest = Request.method(testClazz, methodName);
+			}
+
+			Result r = new JUnitCore().run(testRequest);
+
+			answers.println("[SUCCESS]:" + r.wasSuccessful());
+			answers.println("[TOTAL]:" + r.getRunCount());
+			answers.println("[FAILURE]:" + r.getFailureCount());
+			for (Failure f : r.getFailures()) {
+				String failure = f.toString().replace('\n', ' ');
+				// messages can be huge (e.g., a whole expected document); the start is plenty
+				answers.println(failure.length() > 1000 ? failure.substring(0, 1000) : failure);
+			}
+			return r.wasSuccessful();
+		} catch (Throwable e) {
+			e.printStackTrace();
+			answers.println("[SUCCESS]:false");
+			return false;
+		}
+	}
+}
@@ -53,6 +53,8 @@ public class TestCase implements Comparable<TestCase>, Serializable {
 	private final TestType posOrNeg;
 	private final String testName;
 	private int numPatchesKilled = 0;
+	/** how long the test took on the original program, in ms; -1 if we don't know */
+	private long baselineMillis = -1;
 
 	public enum TestType {
 		POSITIVE, NEGATIVE
@@ -71,6 +73,14 @@ public class TestCase implements Comparable<TestCase>, Serializable {
 		return this.testName;
 	}
 
+	public long getBaselineMillis() {
+		return baselineMillis;
+	}
+
+	public void setBaselineMillis(long baselineMillis) {
+		this.baselineMillis = baselineMillis;
+	}
+
 	public void incrementPatchesKilled() {
 		this.numPatchesKilled++;
 	}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2014-2015, 
+ *  Claire Le Goues     <clegoues@cs.cmu.edu>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package clegoues.genprog4java.fitness;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Channel the one-shot test runners ({@link JUnitTestRunner}, {@link JUnitTestRunnerWithPool}) report
+ * results on, instead of printing them for us to scrape off stdout.  Like the runners, this must be
+ * compiled into the runner jar.
+ *
+ * The channel is a small binary file named by the genprog4java.results system property.  Every test
+ * run adds one length-prefixed record (test as passed to the runner, whether it passed, tests run,
+ * tests failed, and the start of the failure descriptions), so a runner that dies part way leaves the
+ * results of the tests it did finish.  Once a runner writes to the channel it discards everything the
+ * tests print, so how chatty a test is has no bearing on what we have to read back.
+ */
+public class TestResultChannel {
+	public static final String PROPERTY = "genprog4java.results";
+
+	private static final int maxFailureChars = 1000;
+
+	/** one record read back from the channel */
+	public static class Result {
+		private final String test;
+		private final FitnessValue value;
+		private final String failures;
+
+		private Result(String test, FitnessValue value, String failures) {
+			this.test = test;
+			this.value = value;
+			this.failures = failures;
+		}
+
+		/** the test as it was passed to the runner */
+		public String getTest() {
+			return test;
+		}
+
+		public FitnessValue getValue() {
+			return value;
+		}
+
+		/** failure descriptions, cut short if long */
+		public String getFailures() {
+			return failures;
+		}
+	}
+
+	private final DataOutputStream out;
+
+	private TestResultChannel(File file) throws IOException {
+		this.out = new DataOutputStream(new FileOutputStream(file, true));
+	}
+
+	/**
+	 * the channel this runner was asked to report on, if any.  If there is one, System.out is
+	 * silenced from here on.
+	 * @return the channel, or null if the runner should print its results
+	 */
+	public static TestResultChannel open() {
+		String path = System.getProperty(PROPERTY);
+		if (path == null || path.isEmpty()) {
+			return null;
+		}
+		try {
+			TestResultChannel channel = new TestResultChannel(new File(path));
+			System.setOut(new PrintStream(new OutputStream() {
+				@Override
+				public void write(int b) {
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) {
+				}
+			}));
+			return channel;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/** appends the results of a JUnit run of test */
+	public void write(String test, org.junit.runner.Result r) {
+		StringBuilder failures = new StringBuilder();
+		for (org.junit.runner.notification.Failure f : r.getFailures()) {
+			if (failures.length() > maxFailureChars) {
+				break;
+			}
+			failures.append(f.toString()).append('\n');
+		}
+		this.write(test, r.wasSuccessful(), r.getRunCount(), r.getFailureCount(), failures.toString());
+	}
+
+	/** appends one test's results, flushed so that they survive the runner dying later on */
+	public void write(String test, boolean success, int total, int failed, String failures) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream record = new DataOutputStream(bytes);
+			record.writeUTF(test);
+			record.writeBoolean(success);
+			record.writeInt(total);
+			record.writeInt(failed);
+			record.writeUTF(failures.length() > maxFailureChars ? failures.substring(0, maxFailureChars) : failures);
+			record.flush();
+			out.writeInt(bytes.size());
+			bytes.writeTo(out);
+			out.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/** @return the complete records a runner left in file, in the order the tests were run */
+	public static List<Result> read(File file) throws IOException {
+		List<Result> results = new ArrayList<Result>();
+		if (!file.exists()) {
+			return results;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			while (true) {
+				byte[] payload;
+				try {
+					payload = new byte[in.readInt()];
+					in.readFully(payload);
+				} catch (EOFException e) {
+					// end of the channel, or the runner died half way through a record
+					break;
+				}
+				DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+				String test = record.readUTF();
+				boolean success = record.readBoolean();
+				int total = record.readInt();
+				int failed = record.readInt();
+				String failures = record.readUTF();
+				results.add(new Result(test, new FitnessValue(test, total, total - failed, failed, success), failures));
+			}
+		} finally {
+			in.close();
+		}
+		return results;
+	}
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2014-2015, 
+ *  Claire Le Goues     <clegoues@cs.cmu.edu>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package clegoues.genprog4java.fitness;
+
+import clegoues.genprog4java.main.Configuration;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Talks to a {@link JUnitTestServer} running in its own JVM.  Each worker thread gets its own server
+ * (see {@link #forCurrentThread()}), which is started lazily and restarted after a fixed number of
+ * runs, when it times out, or when it dies (e.g., because a test called System.exit).
+ */
+public class TestServerClient {
+	protected static Logger logger = Logger.getLogger(TestServerClient.class);
+
+	private static final List<TestServerClient> allClients =
+			Collections.synchronizedList(new ArrayList<TestServerClient>());
+
+	private static final ThreadLocal<TestServerClient> perThread = new ThreadLocal<TestServerClient>() {
+		@Override
+		protected TestServerClient initialValue() {
+			TestServerClient client = new TestServerClient();
+			allClients.add(client);
+			return client;
+		}
+	};
+
+	private static final ScheduledExecutorService watchdogs = Executors.newSingleThreadScheduledExecutor(
+			new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "test-server-watchdog");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				synchronized (allClients) {
+					for (TestServerClient client : allClients) {
+						client.stop();
+					}
+				}
+			}
+		});
+	}
+
+	private Process server = null;
+	private BufferedWriter toServer = null;
+	private BufferedReader fromServer = null;
+	private int runs = 0;
+	/** whether the last request was cut off by its timeout */
+	private volatile boolean timedOut = false;
+	/** variants whose in-memory classes this server was sent; it only keeps the last few, see {@link #send} */
+	private Set<String> classesSent = new HashSet<String>();
+
+	private TestServerClient() {
+	}
+
+	public static TestServerClient forCurrentThread() {
+		return perThread.get();
+	}
+
+	private void start() throws IOException {
+		List<String> command = new ArrayList<String>();
+		command.add(Configuration.javaVM);
+		command.add("-classpath");
+		command.add(Configuration.libs);
+		command.add("-Xms128m");
+		command.add("-Xmx1024m");
+		command.add("clegoues.genprog4java.fitness.JUnitTestServer");
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.directory(new File(System.getProperty("user.dir")));
+		server = builder.start();
+		drain(server.getErrorStream());
+		toServer = new BufferedWriter(new OutputStreamWriter(server.getOutputStream()));
+		fromServer = new BufferedReader(new InputStreamReader(server.getInputStream()));
+		runs = 0;
+		classesSent.clear();
+	}
+
+	private void sendClasses(String variantKey, Map<String, byte[]> classes) throws IOException {
+		toServer.write("CLASSES\t" + variantKey + "\t" + classes.size() + "\n");
+		for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+			toServer.write(entry.getKey() + "\t" + Base64.getEncoder().encodeToString(entry.getValue()) + "\n");
+		}
+		toServer.flush();
+		String line = fromServer.readLine();
+		if (line == null || !line.equals("[END]")) {
+			throw new IOException("test server did not accept classes for " + variantKey);
+		}
+		classesSent.add(variantKey);
+	}
+
+	/** the server's stderr has to be consumed or it will eventually block */
+	private static void drain(final InputStream stream) {
+		Thread t = new Thread("test-server-stderr") {
+			@Override
+			public void run() {
+				byte[] buffer = new byte[4096];
+				try {
+					while (stream.read(buffer) >= 0) {
+					}
+				} catch (IOException e) {
+				}
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+	}
+
+	public synchronized void stop() {
+		if (server != null) {
+			try {
+				toServer.write("QUIT\n");
+				toServer.flush();
+			} catch (IOException e) {
+			}
+			server.destroy();
+			server = null;
+		}
+	}
+
+	/**
+	 * runs one test on the server
+	 * @param classPath classpath for the variant under test (variant classes, tests, project)
+	 * @param testName test class or class::method
+	 * @param options ids of the variant options to switch on, if any (see {@link VariantOptions#ids})
+	 * @param variantKey name of the variant, used to refer to classes already sent to the server
+	 * @param classes class files compiled in memory, sent to the server ahead of the test; null if
+	 * the variant's classes are on disk
+	 * @param timeoutMillis how long to wait before giving up on the server
+	 * @param maxRuns number of requests after which the server is replaced with a fresh one
+	 * @return the server's answer, or null if the test timed out or the server died
+	 */
+	public synchronized String runTest(String classPath, String testName, int[] options,
+			String variantKey, Map<String, byte[]> classes, long timeoutMillis, int maxRuns) {
+		StringBuilder request = new StringBuilder("RUN\t");
+		request.append(classPath).append('\t').append(testName).append('\t');
+		for (int option : options) {
+			request.append(option).append(' ');
+		}
+		request.append('\t').append(classes != null ? variantKey : "");
+		return this.send(request.toString(), testName, variantKey, classes, timeoutMillis, maxRuns, false);
+	}
+
+	/**
+	 * runs several tests on the same variant as one request; see {@link JUnitTestServer} for the answer format.
+	 * Parameters are as for {@link #runTest}.
+	 * @param stopOnFailure whether the server should skip the tests after the first one that fails
+	 * @return the server's answer; if the batch timed out or the server died, whatever it answered before that
+	 */
+	public synchronized String runTests(String classPath, List<String> testNames, int[] options,
+			String variantKey, Map<String, byte[]> classes, boolean stopOnFailure, long timeoutMillis, int maxRuns) {
+		StringBuilder request = new StringBuilder("BATCH\t");
+		request.append(classPath).append('\t');
+		for (int option : options) {
+			request.append(option).append(' ');
+		}
+		request.append('\t').append(classes != null ? variantKey : "").append('\t').append(stopOnFailure);
+		for (String testName : testNames) {
+			request.append('\t').append(testName);
+		}
+		return this.send(request.toString(), testNames.size() + " tests", variantKey, classes, timeoutMillis, maxRuns,
+				true);
+	}
+
+	/** whether the last request on this client was cut off because it ran out of time */
+	public boolean lastRequestTimedOut() {
+		return timedOut;
+	}
+
+	private String send(String request, String what, String variantKey, Map<String, byte[]> classes,
+			long timeoutMillis, int maxRuns, boolean partialAnswers) {
+		timedOut = false;
+		if (server != null && runs >= maxRuns) {
+			this.stop();
+		}
+		try {
+			if (server == null) {
+				this.start();
+			}
+			boolean sentNow = false;
+			if (classes != null && !classesSent.contains(variantKey)) {
+				this.sendClasses(variantKey, classes);
+				sentNow = true;
+			}
+			toServer.write(request + "\n");
+			toServer.flush();
+			runs++;
+
+			final Process current = server;
+			ScheduledFuture<?> watchdog = watchdogs.schedule(new Runnable() {
+				@Override
+				public void run() {
+					timedOut = true;
+					current.destroy();
+				}
+			}, timeoutMillis, TimeUnit.MILLISECONDS);
+			StringBuilder answer = new StringBuilder();
+			String line;
+			try {
+				while ((line = fromServer.readLine()) != null && !line.equals("[END]")) {
+					answer.append(line).append('\n');
+				}
+			} finally {
+				watchdog.cancel(false);
+			}
+			if (line == null) {
+				logger.info("test server " + (timedOut ? "timed out" : "stopped") + " while running " + what
+						+ "; restarting it");
+				this.stop();
+				return partialAnswers ? answer.toString() : null;
+			}
+			if (classes != null && !sentNow && answer.indexOf(JUnitTestServer.UNKNOWN_VARIANT) == 0) {
+				// the server has since dropped this variant's classes to make room for others'
+				classesSent.remove(variantKey);
+				return this.send(request, what, variantKey, classes, timeoutMillis, maxRuns, partialAnswers);
+			}
+			return answer.toString();
+		} catch (IOException e) {
+			logger.error("lost the test server while running " + what + ": " + e.getMessage());
+			this.stop();
+			return partialAnswers ? "" : null;
+		}
+	}
+}
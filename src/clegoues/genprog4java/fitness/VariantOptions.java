@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2014-2015, 
+ *  Claire Le Goues     <clegoues@cs.cmu.edu>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package clegoues.genprog4java.fitness;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Switches variants of the merged program (see {@link clegoues.genprog4java.rep.MergedRepresentation}) on
+ * and off in a test JVM, through the varexc.GlobalOptions class generated for it.  Like the runners, this must
+ * be compiled into the runner jar.
+ *
+ * A JVM that runs several variants one after another calls {@link #reset(ClassLoader)} in between.  That
+ * switches every option back off, and puts back the static fields that
+ * {@link clegoues.genprog4java.mut.RewriteFinalizer} hoisted locals into (listed in varexc.HoistedFields), so
+ * that nothing a variant left in them is seen by the next.  Other static state of the program is not touched.
+ *
+ * A merged program can have tens of thousands of options, so they are not looked up by reflection on every
+ * run.  The first use of a loaded GlobalOptions class numbers its options in order of their names, so that
+ * every load of the same program numbers them the same way.  genprog turns a variant's options into those
+ * numbers with {@link #ids}, once per program, and the runners are only ever sent numbers, which
+ * {@link #enable(int[], ClassLoader)} sets through setters that are made once per option and kept.
+ */
+public class VariantOptions {
+
+	/** the options of one GlobalOptions class, by id */
+	private static class Index {
+		private final Map<String, Integer> ids = new HashMap<String, Integer>();
+		private final Field[] fields;
+		private final MethodHandle[] setters;
+		/** options switched on since the last reset; only these need switching off */
+		private final List<Integer> enabled = new ArrayList<Integer>();
+		/** hoisted fields, looked up on the first reset */
+		private List<Field> hoisted = null;
+
+		private Index(Class<?> globalOptions) {
+			List<Field> options = new ArrayList<Field>();
+			for (Field f : globalOptions.getDeclaredFields()) {
+				if (Modifier.isStatic(f.getModifiers()) && f.getType() == boolean.class) {
+					options.add(f);
+				}
+			}
+			Collections.sort(options, new Comparator<Field>() {
+				@Override
+				public int compare(Field one, Field two) {
+					return one.getName().compareTo(two.getName());
+				}
+			});
+			for (Field f : options) {
+				ids.put(f.getName(), ids.size());
+			}
+			this.fields = options.toArray(new Field[options.size()]);
+			this.setters = new MethodHandle[fields.length];
+		}
+
+		private void set(int id, boolean value) throws Throwable {
+			if (id < 0 || id >= fields.length) {
+				throw new NoSuchFieldException("option " + id + " of " + fields.length);
+			}
+			MethodHandle setter = setters[id];
+			if (setter == null) {
+				fields[id].setAccessible(true);
+				setter = MethodHandles.lookup().unreflectSetter(fields[id]);
+				setters[id] = setter;
+			}
+			setter.invokeExact(value);
+		}
+	}
+
+	/**
+	 * index of each loaded GlobalOptions class.  A server that switches between the loaders of a few variants
+	 * keeps all of their indexes; they go when their class is unloaded.
+	 */
+	private static final ClassValue<Index> indexes = new ClassValue<Index>() {
+		@Override
+		protected Index computeValue(Class<?> globalOptions) {
+			return new Index(globalOptions);
+		}
+	};
+
+	private static Index index(ClassLoader loader) throws ClassNotFoundException {
+		// not initialized here: genprog only numbers the options, and setting one initializes the class
+		return indexes.get(Class.forName("varexc.GlobalOptions", false, loader));
+	}
+
+	/**
+	 * @return ids of the given options, which are field names of varexc.GlobalOptions; the same for every
+	 * loader of the same program
+	 */
+	public static int[] ids(String[] options, ClassLoader loader) throws Exception {
+		Index index = index(loader);
+		int[] ids = new int[options.length];
+		for (int i = 0; i < options.length; i++) {
+			Integer id = index.ids.get(options[i]);
+			if (id == null) {
+				throw new NoSuchFieldException(options[i]);
+			}
+			ids[i] = id;
+		}
+		return ids;
+	}
+
+	/** switches on the options with the given ids */
+	public static void enable(int[] ids, ClassLoader loader) throws Exception {
+		Index index = index(loader);
+		synchronized (index) {
+			try {
+				for (int id : ids) {
+					index.set(id, true);
+					index.enabled.add(id);
+				}
+			} catch (Exception | Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	/** @return option ids as sent to the runners, space separated; none for an empty string */
+	static int[] parseIds(String ids) {
+		String trimmed = ids.trim();
+		if (trimmed.isEmpty()) {
+			return new int[0];
+		}
+		String[] fields = trimmed.split("\\s+");
+		int[] parsed = new int[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			parsed[i] = Integer.parseInt(fields[i]);
+		}
+		return parsed;
+	}
+
+	/** switches every option off and puts the hoisted fields back the way they start out */
+	public static void reset(ClassLoader loader) throws Exception {
+		Index index = index(loader);
+		synchronized (index) {
+			try {
+				// options only ever get switched on through enable, so the rest are still off
+				for (int id : index.enabled) {
+					index.set(id, false);
+				}
+			} catch (Exception | Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new RuntimeException(e);
+			}
+			index.enabled.clear();
+			if (index.hoisted == null) {
+				index.hoisted = hoistedFields(loader);
+			}
+			for (Field f : index.hoisted) {
+				resetField(f);
+			}
+		}
+	}
+
+	/** the fields listed in varexc.HoistedFields that this build of the program has */
+	private static List<Field> hoistedFields(ClassLoader loader) throws Exception {
+		List<Field> fields = new ArrayList<Field>();
+		Class<?> HoistedFields;
+		try {
+			HoistedFields = Class.forName("varexc.HoistedFields", true, loader);
+		} catch (ClassNotFoundException e) {
+			// merged before hoisted fields were listed
+			return fields;
+		}
+		for (String chunk : (String[]) HoistedFields.getField("FIELDS").get(null)) {
+			for (String entry : chunk.split(";")) {
+				if (entry.isEmpty()) {
+					continue;
+				}
+				int hash = entry.indexOf('#');
+				try {
+					Field f = Class.forName(entry.substring(0, hash), false, loader)
+							.getDeclaredField(entry.substring(hash + 1));
+					f.setAccessible(true);
+					fields.add(f);
+				} catch (ClassNotFoundException | NoSuchFieldException | LinkageError e) {
+					// not part of this build of the program; nothing to reset
+				}
+			}
+		}
+		return fields;
+	}
+
+	/** puts a field back to its default value; the stacks the states are kept on are emptied */
+	private static void resetField(Field f) throws IllegalAccessException {
+		Class<?> type = f.getType();
+		if (Collection.class.isAssignableFrom(type)) {
+			Collection<?> stack = (Collection<?>) f.get(null);
+			if (stack != null) {
+				stack.clear();
+			}
+		} else if (type == boolean.class) {
+			f.setBoolean(null, false);
+		} else if (type == char.class) {
+			f.setChar(null, (char) 0);
+		} else if (type == byte.class) {
+			f.setByte(null, (byte) 0);
+		} else if (type == short.class) {
+			f.setShort(null, (short) 0);
+		} else if (type == int.class) {
+			f.setInt(null, 0);
+		} else if (type == long.class) {
+			f.setLong(null, 0L);
+		} else if (type == float.class) {
+			f.setFloat(null, 0.0f);
+		} else if (type == double.class) {
+			f.setDouble(null, 0.0);
+		} else {
+			f.set(null, null);
+		}
+	}
+}
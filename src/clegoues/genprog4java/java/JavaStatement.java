@@ -828,18 +828,17 @@ if B include return statement
 		return parent;
 	}
 
-	private static int howManyReturns = 0;
-
 	public static boolean hasMoreThanOneReturn(MethodDeclaration method){
-		howManyReturns = 0;
+		// a local count, rather than a static one, so ingredients can be checked from several threads
+		final int[] howManyReturns = { 0 };
 		method.accept(new ASTVisitor() {
 			@Override
 			public boolean visit(ReturnStatement node) {
-				howManyReturns++;
+				howManyReturns[0]++;
 				return true;
 			}
 		});
-		return howManyReturns>=2;
+		return howManyReturns[0]>=2;
 	}
 
 	public boolean canBeDeleted() {
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2014-2015, 
+ *  Claire Le Goues     <clegoues@cs.cmu.edu>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package clegoues.genprog4java.java;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.log4j.Logger;
+
+import clegoues.genprog4java.main.Configuration;
+
+/**
+ * Compiles variants with a single javac instance.  Each worker thread keeps its own
+ * StandardJavaFileManager open for the whole run, so the jars on the classpath are opened and
+ * indexed once rather than once per variant.  Variants are compiled against libs plus srcClassPath,
+ * so anything not in the variant's source buffers resolves to the original class files.
+ * Per-variant compile time is logged along with a running average.
+ */
+public class VariantCompiler {
+	protected static Logger logger = Logger.getLogger(VariantCompiler.class);
+
+	private static final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+
+	private static final ThreadLocal<StandardJavaFileManager> fileManagers = new ThreadLocal<StandardJavaFileManager>() {
+		@Override
+		protected StandardJavaFileManager initialValue() {
+			StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+			try {
+				fileManager.setLocation(StandardLocation.CLASS_PATH, classPath());
+			} catch (IOException e) {
+				logger.error("bad compile classpath: " + e.getMessage());
+			}
+			return fileManager;
+		}
+	};
+
+	private static final AtomicLong numCompiled = new AtomicLong(0);
+	private static final AtomicLong totalMillis = new AtomicLong(0);
+
+	private VariantCompiler() {}
+
+	private static List<File> classPath() {
+		List<File> entries = new ArrayList<File>();
+		for (String path : new String[] { Configuration.libs, Configuration.srcClassPath }) {
+			for (String entry : path.split(File.pathSeparator)) {
+				if (!entry.trim().isEmpty()) {
+					entries.add(new File(entry.trim()));
+				}
+			}
+		}
+		return entries;
+	}
+
+	private static List<String> options() {
+		LinkedList<String> options = new LinkedList<String>();
+		options.add("-source");
+		options.add(Configuration.sourceVersion);
+		options.add("-target");
+		options.add(Configuration.sourceVersion);
+		return options;
+	}
+
+	private static boolean run(String progName, List<Pair<ClassInfo, String>> sources, JavaFileManager fileManager,
+			StringWriter compilerErrorWriter) {
+		long start = System.currentTimeMillis();
+		boolean result = compiler.getTask(compilerErrorWriter, fileManager, null, options(),
+				null, ASTUtils.getJavaSourceFromString(progName, sources)).call();
+		long elapsed = System.currentTimeMillis() - start;
+		long count = numCompiled.incrementAndGet();
+		long total = totalMillis.addAndGet(elapsed);
+		logger.info("compiled " + progName + " in " + elapsed + "ms (" + count + " compiles, avg "
+				+ (total / count) + "ms)");
+		if (!result) {
+			logger.error(compilerErrorWriter.toString());
+		}
+		return result;
+	}
+
+	/** compiles sources into outDir; compiler errors go to diagnostics */
+	public static boolean compile(String progName, List<Pair<ClassInfo, String>> sources, String outDir,
+			StringWriter diagnostics) {
+		StandardJavaFileManager fileManager = fileManagers.get();
+		try {
+			fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singletonList(new File(outDir)));
+		} catch (IOException e) {
+			logger.error("cannot write classes to " + outDir + ": " + e.getMessage());
+			return false;
+		}
+		return run(progName, sources, fileManager, diagnostics);
+	}
+
+	/** compiles sources without writing anything to disk
+	 * @return class files keyed by binary name, or null if the sources do not compile
+	 */
+	public static Map<String, byte[]> compileInMemory(String progName, List<Pair<ClassInfo, String>> sources,
+			StringWriter diagnostics) {
+		InMemoryClassFileManager fileManager = new InMemoryClassFileManager(fileManagers.get());
+		if (!run(progName, sources, fileManager, diagnostics)) {
+			return null;
+		}
+		return fileManager.getClassBytes();
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2014-2015, 
+ *  Claire Le Goues     <clegoues@cs.cmu.edu>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package clegoues.genprog4java.localization;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Which statements (atom ids) each test covers on the original program, as collected during
+ * localization.  Saved one test per line:
+ *
+ * <pre>test &lt;tab&gt; id id id ...</pre>
+ */
+public class CoverageMatrix {
+	protected static Logger logger = Logger.getLogger(CoverageMatrix.class);
+
+	private final Map<String, BitSet> byTest = new LinkedHashMap<String, BitSet>();
+
+	public void put(String test, Collection<Integer> atoms) {
+		BitSet covered = new BitSet();
+		for (int atom : atoms) {
+			covered.set(atom);
+		}
+		byTest.put(test, covered);
+	}
+
+	/** @return whether test covers any of atoms, or null if we have no coverage for test */
+	public Boolean reaches(String test, Collection<Integer> atoms) {
+		BitSet covered = byTest.get(test);
+		if (covered == null) {
+			return null;
+		}
+		for (int atom : atoms) {
+			if (covered.get(atom)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** @return how many of tests we have coverage for */
+	public int known(Collection<String> tests) {
+		int known = 0;
+		for (String test : tests) {
+			if (byTest.containsKey(test)) {
+				known++;
+			}
+		}
+		return known;
+	}
+
+	/**
+	 * @return for each atom id, how many of tests cover it; tests we have no coverage for are skipped.
+	 * Ids past the end of the array are covered by none of them.
+	 */
+	public int[] hitCounts(Collection<String> tests) {
+		int length = 0;
+		for (String test : tests) {
+			BitSet covered = byTest.get(test);
+			if (covered != null) {
+				length = Math.max(length, covered.length());
+			}
+		}
+		int[] counts = new int[length];
+		for (String test : tests) {
+			BitSet covered = byTest.get(test);
+			if (covered == null) {
+				continue;
+			}
+			for (int atom = covered.nextSetBit(0); atom >= 0; atom = covered.nextSetBit(atom + 1)) {
+				counts[atom]++;
+			}
+		}
+		return counts;
+	}
+
+	public void save(String path) {
+		try (BufferedWriter out = new BufferedWriter(new FileWriter(path))) {
+			for (Map.Entry<String, BitSet> entry : byTest.entrySet()) {
+				out.write(entry.getKey());
+				out.write('\t');
+				BitSet covered = entry.getValue();
+				for (int atom = covered.nextSetBit(0); atom >= 0; atom = covered.nextSetBit(atom + 1)) {
+					out.write(atom + " ");
+				}
+				out.write('\n');
+			}
+		} catch (IOException e) {
+			logger.error("failed to write coverage matrix " + path + ": " + e.getMessage());
+		}
+	}
+
+	/** @return the matrix saved at path, or null if there isn't one */
+	public static CoverageMatrix load(String path) {
+		File file = new File(path);
+		if (!file.exists()) {
+			return null;
+		}
+		CoverageMatrix matrix = new CoverageMatrix();
+		try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				int tab = line.indexOf('\t');
+				if (tab < 0) {
+					continue;
+				}
+				BitSet covered = new BitSet();
+				for (String atom : line.substring(tab + 1).trim().split("\\s+")) {
+					if (!atom.isEmpty()) {
+						covered.set(Integer.parseInt(atom));
+					}
+				}
+				matrix.byTest.put(line.substring(0, tab), covered);
+			}
+		} catch (IOException | NumberFormatException e) {
+			logger.error("failed to read coverage matrix " + path + ": " + e.getMessage());
+			return null;
+		}
+		return matrix;
+	}
+}
@@ -3,6 +3,7 @@ package clegoues.genprog4java.localization;
 import clegoues.genprog4java.Search.GiveUpException;
 import clegoues.genprog4java.Search.Search;
 import clegoues.genprog4java.fitness.Fitness;
+import clegoues.genprog4java.fitness.FitnessValue;
 import clegoues.genprog4java.fitness.TestCase;
 import clegoues.genprog4java.java.ClassInfo;
 import clegoues.genprog4java.main.Configuration;
@@ -11,7 +12,10 @@ import clegoues.genprog4java.rep.JavaRepresentation;
 import clegoues.genprog4java.rep.Representation;
 import clegoues.genprog4java.rep.WeightedAtom;
 import clegoues.util.ConfigurationBuilder;
-import clegoues.util.GlobalUtils;
+import clegoues.util.AliasSampler;
+import clegoues.util.WorkerPool;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.log4j.Logger;
 import org.jacoco.core.analysis.Analyzer;
 import org.jacoco.core.analysis.CoverageBuilder;
@@ -22,6 +26,8 @@ import org.jacoco.core.data.*;
 import java.io.*;
 import java.nio.file.FileSystems;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static clegoues.util.ConfigurationBuilder.*;
 
@@ -91,13 +97,40 @@ public class DefaultLocalization extends Localization {
 			.inGroup( "DefaultLocalization Parameters" )
 			.build();
 
+	protected static String coverageMatrixFile = ConfigurationBuilder.of( STRING )
+			.withVarName( "coverageMatrixFile" )
+			.withDefault( "coverage.matrix" )
+			.withHelp( "file containing the statements covered by each test" )
+			.inGroup( "DefaultLocalization Parameters" )
+			.build();
+
+	protected static String localizationCacheDir = ConfigurationBuilder.of( STRING )
+			.withVarName( "localizationCacheDir" )
+			.withDefault( "localizationCache" )
+			.withHelp( "directory of coverage results to reuse across runs on the same inputs; empty to disable" )
+			.inGroup( "DefaultLocalization Parameters" )
+			.build();
+
+	protected static boolean singleJVMCoverage = ConfigurationBuilder.of( BOOL_ARG )
+			.withVarName( "singleJVMCoverage" )
+			.withDefault( "false" )
+			.withHelp( "collect coverage for many tests per JVM (one JVM per worker) rather than one JVM per test" )
+			.inGroup( "DefaultLocalization Parameters" )
+			.build();
+
 	// FIXME: I think this should be pushed to subclasses
 	protected static String faultLocStrategy = ConfigurationBuilder.of ( STRING )
 			.withVarName("faultLocStrategy")
-			.withHelp("Fault localization strategy")
+			.withHelp("Fault localization strategy: standardPathFile, humanInjected, or a spectrum formula (ochiai, tarantula, dstar)")
 			.withDefault("standardPathFile")
 			.inGroup( "FaultLocRepresentation Parameters" )
 			.build();
+	protected static double dstarExponent = ConfigurationBuilder.of( DOUBLE )
+			.withVarName( "dstarExponent" )
+			.withDefault( "2" )
+			.withHelp( "exponent on failing-test coverage in the dstar formula" )
+			.inGroup( "FaultLocRepresentation Parameters" )
+			.build();
 	protected static String pathToFileHumanInjectedFaultLoc = ConfigurationBuilder.of ( STRING )
 			.withVarName("pathToFileHumanInjectedFaultLoc")
 			.withHelp("The path of the file with classes and line numbers of the faulty stmts, when fault localization is human inserted and not created by the coverage")
@@ -108,10 +141,18 @@ public class DefaultLocalization extends Localization {
 	protected Representation original = null;
 	protected ArrayList<Location> faultLocalization = new ArrayList<Location>();
 	private ArrayList<Location> faultSortedByWeight = null;
+	/** for weighted picks from faultLocalization; rebuilt whenever it changes */
+	private AliasSampler faultSampler = null;
 	private int index = 0;
 
 	protected ArrayList<WeightedAtom> fixLocalization = new ArrayList<WeightedAtom>();
 
+	/** per-test coverage, filled in as coverage is regenerated; null if we only have the path files */
+	private CoverageMatrix coverageMatrix = null;
+
+	/** coverage results for the same inputs from an earlier run were copied into place, and can be trusted */
+	private boolean restoredFromCache = false;
+
 
 	public DefaultLocalization(Representation orig) throws IOException, UnexpectedCoverageResultException {
 		this.original = orig;
@@ -132,7 +173,11 @@ public class DefaultLocalization extends Localization {
 
 	@Override
 	public Location getRandomLocation(double weight) {
-		return (Location) GlobalUtils.chooseOneWeighted(new ArrayList(this.getFaultLocalization()), weight);
+		if (faultSampler == null || faultSampler.size() != faultLocalization.size()) {
+			faultSampler = new AliasSampler((List) faultLocalization);
+		}
+		int i = faultSampler.indexOf(weight);
+		return i < 0 ? null : faultLocalization.get(i);
 	}
 
 	@Override
@@ -149,6 +194,11 @@ public class DefaultLocalization extends Localization {
 		throw new GiveUpException();
 	}
 
+	@Override
+	public CoverageMatrix getCoverageMatrix() {
+		return this.coverageMatrix;
+	}
+
 	@Override
 	public ArrayList<WeightedAtom> getFixSourceAtoms() {
 		return this.fixLocalization;
@@ -160,47 +210,50 @@ public class DefaultLocalization extends Localization {
 		for(int i = 0; i < JavaRepresentation.stmtCounter; i++) {
 			fixLocalization.add(new WeightedAtom(i,1.0));
 		}
+		fixSpaceVersion++;
 	}
 
 	@Override
 	public void reduceSearchSpace() throws GiveUpException {
+		//Reduce Fix space, in one pass; removing atoms one at a time is quadratic in a package-scope fix space
+		ArrayList<WeightedAtom> toKeep = new ArrayList<WeightedAtom>(fixLocalization.size());
+		//potentialFix is a potential fix statement
+		for (WeightedAtom potentialFixAtom : this.getFixSourceAtoms()) {
+			if(!original.shouldBeRemovedFromFix(potentialFixAtom)) {
+				toKeep.add(potentialFixAtom);
+			}
+		}
+		fixLocalization.clear();
+		fixLocalization.addAll(toKeep);
+		fixSpaceVersion++;
+
+		// the fix space is settled now; work out what can go where before anything asks
+		original.indexEditSources(faultLocalization);
+
 		if(Search.checkSpace) {
 			boolean thereIsAtLeastOneMutThatApplies;
-			ArrayList<Location> locsToRemove = new ArrayList<Location>();
-			for (Location potentiallyBuggyLoc : faultLocalization) {
+			Iterator<Location> faultIterator = faultLocalization.iterator();
+			while (faultIterator.hasNext()) {
+				Location potentiallyBuggyLoc = faultIterator.next();
 				thereIsAtLeastOneMutThatApplies = false;
 				List<WeightedMutation> availableMutations = original.availableMutations(potentiallyBuggyLoc);
 				if(availableMutations.isEmpty()){
-					locsToRemove.add(potentiallyBuggyLoc);
+					faultIterator.remove();
 				}else{
 					for (WeightedMutation mutation : availableMutations) {
 						thereIsAtLeastOneMutThatApplies = thereIsAtLeastOneMutThatApplies || original.doesEditApply(potentiallyBuggyLoc, mutation.getLeft());
 					}
 					if(!thereIsAtLeastOneMutThatApplies){
-						locsToRemove.add(potentiallyBuggyLoc);
+						faultIterator.remove();
 					}
 				}
 			}
-			faultLocalization.removeAll(locsToRemove);
+			faultSampler = null;
 			if(faultLocalization.isEmpty()){
 				logger.info("\nThere is no valid mutation to perform in the fault space. Exiting program\n");
 				throw new GiveUpException();
 			}
 		}
-
-		//Reduce Fix space
-		ArrayList<WeightedAtom> toRemove = new ArrayList<WeightedAtom>();
-		//potentialFix is a potential fix statement
-		for (WeightedAtom potentialFixAtom : this.getFixSourceAtoms()) {
-			if(original.shouldBeRemovedFromFix(potentialFixAtom)) {
-				toRemove.add(potentialFixAtom);
-
-			}
-
-		}
-		for(WeightedAtom atom : toRemove) {
-			fixLocalization.remove(atom);
-		}
 	}
 
 	@Override
@@ -212,6 +265,16 @@ public class DefaultLocalization extends Localization {
 		 * pairs. The fix weights are a hash table mapping atom_ids to weights.
 		 */
 		logger.info("Start Fault Localization");
+		LocalizationCache cache = null;
+		if (!localizationCacheDir.trim().isEmpty()) {
+			cache = new LocalizationCache(localizationCacheDir.trim(), original.getSourceDigest(),
+					Fitness.positiveTests, Fitness.negativeTests, Configuration.testClassPath,
+					faultLocStrategy.trim(), "singleJVMCoverage=" + singleJVMCoverage);
+			if (cache.exists()) {
+				cache.restore(posCoverageFile, negCoverageFile, coverageMatrixFile);
+				restoredFromCache = true;
+			}
+		}
 		TreeSet<Integer> positivePath = getPathInfo(DefaultLocalization.posCoverageFile, Fitness.positiveTests, true);
 		TreeSet<Integer> negativePath = null;
 
@@ -222,16 +285,31 @@ public class DefaultLocalization extends Localization {
 			break;
 		case "standardPathFile":
 		default:
-			executionData = null;
 			negativePath = getPathInfo(DefaultLocalization.negCoverageFile, Fitness.negativeTests, false);
 		}
+		boolean coverageRegenerated = coverageMatrix != null;
+		if (coverageRegenerated) {
+			coverageMatrix.save(coverageMatrixFile);
+		} else {
+			coverageMatrix = CoverageMatrix.load(coverageMatrixFile);
+		}
+		Suspiciousness formula = Suspiciousness.forStrategy(faultLocStrategy.trim());
 		switch(faultLocStrategy.trim()) { // FIXME: push this to a subclass.
 		case "humanInjected":
 		case "standardPathFile":
 		default:
-			computeFaultSpace(negativePath,positivePath);
+			if (formula != null && coverageMatrix != null) {
+				computeSpectrumFaultSpace(negativePath, formula);
+			}
+			if (faultLocalization.isEmpty()) {
+				if (formula != null) {
+					logger.warn("no usable per-test coverage in " + coverageMatrixFile + ", falling back to path weights");
+				}
+				computeFaultSpace(negativePath,positivePath);
+			}
 		}
 		computeFixSpace(negativePath, positivePath);
+		fixSpaceVersion++;
 
 		//printout fault space with their weights
 		PrintWriter writer = new PrintWriter("FaultyStmtsAndWeights.txt", "UTF-8");
@@ -239,6 +317,9 @@ public class DefaultLocalization extends Localization {
 			writer.println("Location:\n" + faultLocalization.get(i).getLeft() + "Weight:\n" + faultLocalization.get(i).getWeight() + "\n");
 		}
 		writer.close();
+		if (cache != null && coverageRegenerated) {
+			cache.store(posCoverageFile, negCoverageFile, coverageMatrixFile, "FaultyStmtsAndWeights.txt");
+		}
 
 		assert (faultLocalization.size() > 0);
 		assert (fixLocalization.size() > 0);
@@ -246,29 +327,56 @@ public class DefaultLocalization extends Localization {
 	}
 
 	protected void computeFaultSpace(TreeSet<Integer> negativePath, TreeSet<Integer> positivePath) {
-		HashMap<Integer, Double> fw = new HashMap<Integer, Double>();
-		TreeSet<Integer> negHt = new TreeSet<Integer>();
-		TreeSet<Integer> posHt = new TreeSet<Integer>();
-
-		for (Integer i : positivePath) {
-			fw.put(i, DefaultLocalization.positivePathWeight);
+		BitSet posHt = new BitSet();
+		for (int i : positivePath) {
+			posHt.set(i);
 		}
+		// paths are sets already, so each negative statement is seen once
+		faultLocalization.ensureCapacity(faultLocalization.size() + negativePath.size());
+		for (int i : negativePath) {
+			double negWeight = DefaultLocalization.negativePathWeight;
+			if (posHt.get(i)) {
+				negWeight = DefaultLocalization.positivePathWeight;
+			}
+			faultLocalization.add(original.instantiateLocation(i, negWeight));
+		}
+		faultSampler = null;
+	}
 
-		for (Integer i : positivePath) {
-			posHt.add(i);
-			fw.put(i, 0.5);
+	/**
+	 * weights each statement on the negative path by its suspiciousness, from how many passing and
+	 * failing tests cover it.  Weights are scaled so the most suspicious statement gets 1.0.
+	 */
+	protected void computeSpectrumFaultSpace(TreeSet<Integer> negativePath, Suspiciousness formula) {
+		List<String> passing = new ArrayList<String>();
+		for (TestCase test : Fitness.positiveTests) {
+			passing.add(test.getTestName());
 		}
-		for (Integer i : negativePath) {
-			if (!negHt.contains(i)) {
-				double negWeight = DefaultLocalization.negativePathWeight;
-				if (posHt.contains(i)) {
-					negWeight = DefaultLocalization.positivePathWeight;
-				}
-				negHt.add(i);
-				fw.put(i, 0.5);
-				faultLocalization.add(original.instantiateLocation(i, negWeight));
+		List<String> failing = new ArrayList<String>();
+		for (TestCase test : Fitness.negativeTests) {
+			failing.add(test.getTestName());
+		}
+		int[] passedHits = coverageMatrix.hitCounts(passing);
+		int[] failedHits = coverageMatrix.hitCounts(failing);
+		int totalPassed = coverageMatrix.known(passing);
+		int totalFailed = coverageMatrix.known(failing);
+
+		Map<Integer, Double> scores = new LinkedHashMap<Integer, Double>();
+		double max = 0;
+		for (int atom : negativePath) {
+			int ef = atom < failedHits.length ? failedHits[atom] : 0;
+			int ep = atom < passedHits.length ? passedHits[atom] : 0;
+			double score = formula.score(ef, ep, totalFailed, totalPassed);
+			if (score > 0) {
+				scores.put(atom, score);
+				max = Math.max(max, score);
 			}
 		}
+		for (Map.Entry<Integer, Double> score : scores.entrySet()) {
+			faultLocalization.add(original.instantiateLocation(score.getKey(), score.getValue() / max));
+		}
+		logger.info(formula + ": " + scores.size() + " suspicious statements, of "
+				+ negativePath.size() + " on the negative path");
 	}
 
 	protected void computeFixSpace(TreeSet<Integer> negativePath, TreeSet<Integer> positivePath) {
@@ -317,7 +425,7 @@ public class DefaultLocalization extends Localization {
 
 	protected TreeSet<Integer> getPathInfo(String path, ArrayList<TestCase> tests, boolean shouldPass) throws UnexpectedCoverageResultException, IOException {
 		File pathFile = new File(path);
-		if(pathFile.exists() && !DefaultLocalization.regenPaths) {
+		if(pathFile.exists() && (!DefaultLocalization.regenPaths || restoredFromCache)) {
 			return readPathFile(path);
 		} else {
 			String covPath = Configuration.outputDir + "/coverage/";
@@ -359,28 +467,30 @@ public class DefaultLocalization extends Localization {
 					throws IOException, UnexpectedCoverageResultException {
 		int counterCoverageErrors = 0;
 
-		TreeSet<Integer> atoms = new TreeSet<Integer>();
-		for (TestCase test : tests) {
-			File coverageRaw = new File("jacoco.exec");
-
-			if (coverageRaw.exists()) {
-				coverageRaw.delete();
-			}
+		List<Pair<Boolean, TreeSet<Integer>>> results = null;
+		if (singleJVMCoverage) {
+			results = this.runTestsCoverageInOneJVM(tests, expectedResult);
+		}
+		if (results == null) {
+			results = this.runTestsCoverageOneByOne(tests, expectedResult);
+		}
 
-			//System.out.println(test);
-			logger.info(test);
-			// this expectedResult is just 'true' for positive tests and 'false'
-			// for neg tests
-			if (original.testCase(test, true).isAllPassed() != expectedResult
-					&& !allowCoverageFail) {
+		TreeSet<Integer> atoms = new TreeSet<Integer>();
+		for (int i = 0; i < tests.size(); i++) {
+			TestCase test = tests.get(i);
+			if (!results.get(i).getLeft() && !allowCoverageFail) {
 				logger.error("FaultLocRep: unexpected coverage result: "
 						+ test.toString());
 				logger.error("Number of coverage errors so far: "
 						+ ++counterCoverageErrors);
 
 			}
-			TreeSet<Integer> thisTestResult = this.getCoverageInfo();
+			TreeSet<Integer> thisTestResult = results.get(i).getRight();
 			atoms.addAll(thisTestResult);
+			if (coverageMatrix == null) {
+				coverageMatrix = new CoverageMatrix();
+			}
+			coverageMatrix.put(test.getTestName(), thisTestResult);
 		}
 
 		BufferedWriter out = new BufferedWriter(new FileWriter(new File(
@@ -396,15 +506,100 @@ public class DefaultLocalization extends Localization {
 		return atoms;
 	}
 
-	private ExecutionDataStore executionData = null;
+	/**
+	 * coverage with one JVM per test, spread across workers
+	 * @return whether each test had the expected result, and what it covered
+	 */
+	private List<Pair<Boolean, TreeSet<Integer>>> runTestsCoverageOneByOne(List<TestCase> tests,
+			final boolean expected) {
+		// each test runs on a worker thread, which has its own jacoco data file
+		List<Callable<Pair<Boolean, TreeSet<Integer>>>> runs = new ArrayList<Callable<Pair<Boolean, TreeSet<Integer>>>>();
+		for (final TestCase test : tests) {
+			runs.add(new Callable<Pair<Boolean, TreeSet<Integer>>>() {
+				@Override
+				public Pair<Boolean, TreeSet<Integer>> call() throws IOException {
+					File coverageRaw = new File(JavaRepresentation.coverageDataFile());
+
+					if (coverageRaw.exists()) {
+						coverageRaw.delete();
+					}
 
-	public TreeSet<Integer> getCoverageInfo() throws IOException {
-		TreeSet<Integer> atoms = new TreeSet<Integer>();
+					//System.out.println(test);
+					logger.info(test);
+					// this expectedResult is just 'true' for positive tests and 'false'
+					// for neg tests
+					boolean asExpected = original.testCase(test, true).isAllPassed() == expected;
+					return Pair.of(asExpected, getCoverageInfo(coverageRaw));
+				}
+			});
+		}
+		return WorkerPool.invokeAll(runs);
+	}
 
-		Map<ClassInfo,String> source = original.getOriginalSource();
+	/**
+	 * coverage with one JVM per worker, each running its share of the tests and leaving their coverage as
+	 * jacoco sessions.
+	 * @return whether each test had the expected result, and what it covered; null if the representation
+	 * can't run tests this way, or a JVM reported no results or no coverage
+	 */
+	private List<Pair<Boolean, TreeSet<Integer>>> runTestsCoverageInOneJVM(List<TestCase> tests,
+			final boolean expected) {
+		int chunks = Math.max(1, Math.min(Configuration.numWorkers, tests.size()));
+		List<Callable<List<Pair<Boolean, TreeSet<Integer>>>>> runs =
+				new ArrayList<Callable<List<Pair<Boolean, TreeSet<Integer>>>>>();
+		for (int c = 0; c < chunks; c++) {
+			final List<TestCase> chunk = tests.subList(c * tests.size() / chunks, (c + 1) * tests.size() / chunks);
+			final File sessions = new File("jacoco-sessions-" + c + ".exec");
+			runs.add(new Callable<List<Pair<Boolean, TreeSet<Integer>>>>() {
+				@Override
+				public List<Pair<Boolean, TreeSet<Integer>>> call() throws IOException {
+					if (sessions.exists()) {
+						sessions.delete();
+					}
+					logger.info("coverage for " + chunk.size() + " tests in one JVM");
+					Map<String, FitnessValue> testResults = original.testCasesWithCoverage(chunk,
+							sessions.getPath());
+					if (testResults == null) {
+						return null;
+					}
+					// a JVM that died before reporting leaves nothing to go on; redo the tests one at a time
+					if (testResults.isEmpty()) {
+						logger.warn("no test results from the coverage JVM, falling back to one JVM per test");
+						return null;
+					}
+					if (!sessions.exists() || sessions.length() == 0) {
+						logger.warn("coverage JVM left no sessions in " + sessions
+								+ ", falling back to one JVM per test");
+						return null;
+					}
+					Map<String, TreeSet<Integer>> coverage = getCoverageInfoBySession(sessions);
+					List<Pair<Boolean, TreeSet<Integer>>> chunkResults = new ArrayList<Pair<Boolean, TreeSet<Integer>>>();
+					for (TestCase test : chunk) {
+						FitnessValue result = testResults.get(test.toString());
+						TreeSet<Integer> covered = coverage.get(test.toString());
+						chunkResults.add(Pair.of(result != null && result.isAllPassed() == expected,
+								covered != null ? covered : new TreeSet<Integer>()));
+					}
+					return chunkResults;
+				}
+			});
+		}
+		List<Pair<Boolean, TreeSet<Integer>>> results = new ArrayList<Pair<Boolean, TreeSet<Integer>>>();
+		for (List<Pair<Boolean, TreeSet<Integer>>> chunkResults : WorkerPool.invokeAll(runs)) {
+			if (chunkResults == null) {
+				return null;
+			}
+			results.addAll(chunkResults);
+		}
+		return results;
+	}
 
-		for (Map.Entry<ClassInfo, String> ele : source.entrySet()) {
-			ClassInfo targetClassInfo = ele.getKey();
+	/** class files of the original, as analyzed for coverage; read once and shared by every test */
+	private final Map<ClassInfo, byte[]> coverageClasses = new ConcurrentHashMap<ClassInfo, byte[]>();
+
+	private byte[] coverageClass(ClassInfo targetClassInfo) throws IOException {
+		byte[] bytes = coverageClasses.get(targetClassInfo);
+		if (bytes == null) {
 			String pathToCoverageClass = Configuration.outputDir + File.separator
 					+ "coverage/coverage.out" + File.separator + targetClassInfo.pathToClassFile();
 			File compiledClass = new File(pathToCoverageClass);
@@ -412,31 +607,80 @@ public class DefaultLocalization extends Localization {
 				pathToCoverageClass = Configuration.classSourceFolder + File.separator + targetClassInfo.pathToClassFile();
 				compiledClass = new File(pathToCoverageClass);
 			}
+			bytes = FileUtils.readFileToByteArray(compiledClass);
+			coverageClasses.put(targetClassInfo, bytes);
+		}
+		return bytes;
+	}
 
-			if (executionData == null) {
-				executionData = new ExecutionDataStore();
+	/**
+	 * statements covered according to one test's jacoco data
+	 * @param coverageRaw jacoco.exec (or a worker's own file) written by the test's coverage run
+	 */
+	public TreeSet<Integer> getCoverageInfo(File coverageRaw) throws IOException {
+		final ExecutionDataStore executionData = new ExecutionDataStore();
+		final FileInputStream in = new FileInputStream(coverageRaw);
+		final ExecutionDataReader reader = new ExecutionDataReader(in);
+		reader.setSessionInfoVisitor(new ISessionInfoVisitor() {
+			public void visitSessionInfo(final SessionInfo info) {
 			}
+		});
+		reader.setExecutionDataVisitor(new IExecutionDataVisitor() {
+			public void visitClassExecution(final ExecutionData data) {
+				executionData.put(data);
+			}
+		});
 
-			final FileInputStream in = new FileInputStream(new File(
-					"jacoco.exec"));
-			final ExecutionDataReader reader = new ExecutionDataReader(in);
-			reader.setSessionInfoVisitor(new ISessionInfoVisitor() {
-				public void visitSessionInfo(final SessionInfo info) {
-				}
-			});
-			reader.setExecutionDataVisitor(new IExecutionDataVisitor() {
-				public void visitClassExecution(final ExecutionData data) {
-					executionData.put(data);
+		reader.read();
+		in.close();
+
+		return this.atomsCovered(executionData);
+	}
+
+	/**
+	 * statements covered by each test in a file of jacoco sessions, as left by a single-JVM coverage run
+	 * @return covered statements, keyed by session id (the test name)
+	 */
+	private Map<String, TreeSet<Integer>> getCoverageInfoBySession(File sessions) throws IOException {
+		final Map<String, ExecutionDataStore> stores = new LinkedHashMap<String, ExecutionDataStore>();
+		final ExecutionDataStore[] current = new ExecutionDataStore[1];
+		final FileInputStream in = new FileInputStream(sessions);
+		final ExecutionDataReader reader = new ExecutionDataReader(in);
+		reader.setSessionInfoVisitor(new ISessionInfoVisitor() {
+			public void visitSessionInfo(final SessionInfo info) {
+				current[0] = new ExecutionDataStore();
+				stores.put(info.getId(), current[0]);
+			}
+		});
+		reader.setExecutionDataVisitor(new IExecutionDataVisitor() {
+			public void visitClassExecution(final ExecutionData data) {
+				if (current[0] != null) {
+					current[0].put(data);
 				}
-			});
+			}
+		});
+
+		reader.read();
+		in.close();
+
+		Map<String, TreeSet<Integer>> coverage = new HashMap<String, TreeSet<Integer>>();
+		for (Map.Entry<String, ExecutionDataStore> session : stores.entrySet()) {
+			coverage.put(session.getKey(), this.atomsCovered(session.getValue()));
+		}
+		return coverage;
+	}
+
+	private TreeSet<Integer> atomsCovered(ExecutionDataStore executionData) throws IOException {
+		TreeSet<Integer> atoms = new TreeSet<Integer>();
+		Map<ClassInfo,String> source = original.getOriginalSource();
 
-			reader.read();
-			in.close();
+		for (Map.Entry<ClassInfo, String> ele : source.entrySet()) {
+			ClassInfo targetClassInfo = ele.getKey();
 
 			final CoverageBuilder coverageBuilder = new CoverageBuilder();
 			final Analyzer analyzer = new Analyzer(executionData,
 					coverageBuilder);
-			analyzer.analyzeAll(new File(pathToCoverageClass));
+			analyzer.analyzeClass(this.coverageClass(targetClassInfo), targetClassInfo.pathToClassFile());
 
 			TreeSet<Integer> coveredLines = new TreeSet<Integer>();
 			for (final IClassCoverage cc : coverageBuilder.getClasses()) {
@@ -37,5 +37,17 @@ public abstract class Localization {
 	public abstract ArrayList<WeightedAtom> getFixSourceAtoms();
 	public abstract void setAllPossibleStmtsToFixLocalization();
 
+	/** bumped whenever the fix space changes, so that anything worked out from it knows to start over */
+	protected int fixSpaceVersion = 0;
+
+	public int getFixSpaceVersion() {
+		return fixSpaceVersion;
+	}
+
+	/** statements each test covers on the original, if this localization collected them; else null */
+	public CoverageMatrix getCoverageMatrix() {
+		return null;
+	}
+
 	protected abstract void computeLocalization() throws IOException, UnexpectedCoverageResultException;
 }
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2014-2015, 
+ *  Claire Le Goues     <clegoues@cs.cmu.edu>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package clegoues.genprog4java.localization;
+
+import clegoues.genprog4java.fitness.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Coverage results of earlier runs on the same bug, so that runs that differ only in seed (or in
+ * search parameters) don't redo coverage.  Each entry is a directory under the cache directory,
+ * named by a digest of everything coverage depends on: the original's source, the positive and
+ * negative tests, the compiled test classes and the fault localization strategy.  It holds copies
+ * of the path files, the coverage matrix and FaultyStmtsAndWeights.txt as the run that made it
+ * left them.
+ *
+ * Entries are written to a temporary directory and renamed into place, so a run sees either a
+ * whole entry or none.
+ */
+public class LocalizationCache {
+	protected static Logger logger = Logger.getLogger(LocalizationCache.class);
+
+	private final File entry;
+
+	/**
+	 * @param original source digest of the original program
+	 * @param testClassPath where the compiled tests live, as a classpath
+	 * @param settings anything else the results depend on
+	 */
+	public LocalizationCache(String cacheDir, String original, Collection<TestCase> positiveTests,
+			Collection<TestCase> negativeTests, String testClassPath, String... settings) throws IOException {
+		MessageDigest md = sha256();
+		update(md, original);
+		for (TestCase test : positiveTests) {
+			update(md, "+" + test.getTestName());
+		}
+		for (TestCase test : negativeTests) {
+			update(md, "-" + test.getTestName());
+		}
+		for (String element : testClassPath.split(File.pathSeparator)) {
+			if (!element.trim().isEmpty()) {
+				digestTree(md, new File(element.trim()), element.trim());
+			}
+		}
+		for (String setting : settings) {
+			update(md, setting);
+		}
+		StringBuilder hex = new StringBuilder();
+		for (byte b : md.digest()) {
+			hex.append(String.format("%02x", b));
+		}
+		this.entry = new File(cacheDir, hex.toString());
+	}
+
+	/** @return whether there are results for these inputs */
+	public boolean exists() {
+		return entry.isDirectory();
+	}
+
+	/** copies the cached results over files, by name; files the entry doesn't have are left alone */
+	public void restore(String... files) throws IOException {
+		for (String file : files) {
+			File cached = new File(entry, new File(file).getName());
+			if (cached.exists()) {
+				FileUtils.copyFile(cached, new File(file));
+			}
+		}
+		logger.info("Reusing localization results from " + entry);
+	}
+
+	/** saves files as the results for these inputs; ones that don't exist are skipped */
+	public void store(String... files) {
+		if (this.exists()) {
+			return;
+		}
+		File staging = new File(entry.getPath() + ".tmp" + System.nanoTime());
+		try {
+			FileUtils.forceMkdir(staging);
+			for (String file : files) {
+				File source = new File(file);
+				if (source.exists()) {
+					FileUtils.copyFile(source, new File(staging, source.getName()));
+				}
+			}
+			if (!staging.renameTo(entry)) {
+				// another run got there first
+				FileUtils.deleteDirectory(staging);
+			} else {
+				logger.info("Saved localization results to " + entry);
+			}
+		} catch (IOException e) {
+			logger.error("failed to cache localization results in " + entry + ": " + e.getMessage());
+			FileUtils.deleteQuietly(staging);
+		}
+	}
+
+	/** contents of every file under file, in a stable order */
+	private static void digestTree(MessageDigest md, File file, String name) throws IOException {
+		if (file.isDirectory()) {
+			String[] children = file.list();
+			if (children == null) {
+				return;
+			}
+			List<String> sorted = new ArrayList<String>();
+			Collections.addAll(sorted, children);
+			Collections.sort(sorted);
+			for (String child : sorted) {
+				digestTree(md, new File(file, child), name + "/" + child);
+			}
+		} else if (file.isFile()) {
+			update(md, name);
+			md.update(FileUtils.readFileToByteArray(file));
+		}
+	}
+
+	private static void update(MessageDigest md, String s) {
+		md.update(s.getBytes(StandardCharsets.UTF_8));
+		md.update((byte) 0);
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
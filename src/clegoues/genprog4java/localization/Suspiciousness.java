@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2014-2015, 
+ *  Claire Le Goues     <clegoues@cs.cmu.edu>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package clegoues.genprog4java.localization;
+
+/**
+ * Spectrum-based suspiciousness formulas.  Each scores a statement from how many failing (ef) and
+ * passing (ep) tests cover it, out of totalFailed and totalPassed.
+ */
+public enum Suspiciousness {
+	OCHIAI {
+		@Override
+		public double score(int ef, int ep, int totalFailed, int totalPassed) {
+			double denominator = Math.sqrt((double) totalFailed * (ef + ep));
+			return denominator == 0 ? 0 : ef / denominator;
+		}
+	},
+	TARANTULA {
+		@Override
+		public double score(int ef, int ep, int totalFailed, int totalPassed) {
+			double failed = totalFailed == 0 ? 0 : (double) ef / totalFailed;
+			double passed = totalPassed == 0 ? 0 : (double) ep / totalPassed;
+			return failed + passed == 0 ? 0 : failed / (failed + passed);
+		}
+	},
+	/**
+	 * ef^* / (ep + nf), with * = dstarExponent.  A statement covered by every failing test and no
+	 * passing one has a denominator of 0; it is scored as if it were 0.5, which ranks it above
+	 * anything with the same ef.
+	 */
+	DSTAR {
+		@Override
+		public double score(int ef, int ep, int totalFailed, int totalPassed) {
+			double denominator = ep + (totalFailed - ef);
+			return Math.pow(ef, DefaultLocalization.dstarExponent) / (denominator == 0 ? 0.5 : denominator);
+		}
+	};
+
+	public abstract double score(int ef, int ep, int totalFailed, int totalPassed);
+
+	/** @return the formula named by a faultLocStrategy, or null if it doesn't name one */
+	public static Suspiciousness forStrategy(String strategy) {
+		for (Suspiciousness formula : values()) {
+			if (formula.name().equalsIgnoreCase(strategy)) {
+				return formula;
+			}
+		}
+		return null;
+	}
+}
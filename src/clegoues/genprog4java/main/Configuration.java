@@ -188,6 +188,11 @@ public class Configuration {
 			.withDefault("false")
 			.withHelp("print debug messages")
 			.build();
+	public static int numWorkers = ConfigurationBuilder.of( INT )
+			.withVarName("numWorkers")
+			.withDefault("1")
+			.withHelp("number of variants to compile and test concurrently")
+			.build();
 
 	public enum EditMode {
 		GENPROG, 			// generate fresh single edits
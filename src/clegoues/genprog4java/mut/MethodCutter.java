@@ -61,6 +61,30 @@ public class MethodCutter {
         }
     }
 
+    /**
+     * Count statements the way the cutter does, to tell whether a source needs cutting at all
+     *
+     * @param source    source code of a compilation unit
+     * @return  the largest number of statements in any one method body of source
+     */
+    public static int largestMethod(String source) {
+        ASTParser parser = ASTParser.newParser(AST.JLS8);
+        parser.setSource(source.toCharArray());
+        final int[] largest = {0};
+        parser.createAST(null).accept(new ASTVisitor() {
+            @Override
+            public boolean visit(MethodDeclaration node) {
+                if (node.getBody() != null) {
+                    StmtCountVisitor visitor = new StmtCountVisitor();
+                    node.getBody().accept(visitor);
+                    largest[0] = Math.max(largest[0], visitor.getStmtCount());
+                }
+                return true;
+            }
+        });
+        return largest[0];
+    }
+
     private void processClass(TypeDeclaration classDecl) {
         MethodDeclaration[] methodDecls = classDecl.getMethods();
         for (MethodDeclaration m : methodDecls) {
@@ -1,6 +1,7 @@
 package clegoues.genprog4java.mut;
 
 import clegoues.genprog4java.main.Configuration;
+import clegoues.genprog4java.mut.varexc.VarexCGlobal;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.jdt.core.JavaCore;
 import org.eclipse.jdt.core.ToolFactory;
@@ -583,23 +584,17 @@ public class RewriteFinalizer extends ASTVisitor {
     private void writeFieldsToClass(MethodDeclaration md, VarNamesCollector collector) {
         TypeDeclaration classDecl = getTypeDeclaration(md);
         for (MyParameter p : collector.parameters) {
-            FieldDeclaration fd = genField(p.getType(), collector.varNames.get(p.getName().getIdentifier()));
-            classDecl.bodyDeclarations().add(fd);
+            addField(classDecl, p.getType(), collector.varNames.get(p.getName().getIdentifier()));
         }
         for (MyParameter p : collector.localVariables) {
-            FieldDeclaration fd = genField(p.getType(), collector.varNames.get(p.getName().getIdentifier()));
-            classDecl.bodyDeclarations().add(fd);
+            addField(classDecl, p.getType(), collector.varNames.get(p.getName().getIdentifier()));
         }
         // additional fields for keeping the states of looping
-        FieldDeclaration hasBreak = genField(ast.newPrimitiveType(PrimitiveType.BOOLEAN), collector.hasBreakFieldName);
-        classDecl.bodyDeclarations().add(hasBreak);
-        FieldDeclaration hasReturn = genField(ast.newPrimitiveType(PrimitiveType.BOOLEAN), collector.hasReturnFieldName);
-        classDecl.bodyDeclarations().add(hasReturn);
-        FieldDeclaration hasContinue = genField(ast.newPrimitiveType(PrimitiveType.BOOLEAN), collector.hasContinueFieldName);
-        classDecl.bodyDeclarations().add(hasContinue);
+        addField(classDecl, ast.newPrimitiveType(PrimitiveType.BOOLEAN), collector.hasBreakFieldName);
+        addField(classDecl, ast.newPrimitiveType(PrimitiveType.BOOLEAN), collector.hasReturnFieldName);
+        addField(classDecl, ast.newPrimitiveType(PrimitiveType.BOOLEAN), collector.hasContinueFieldName);
         if (hasReturnValue(md)) {
-            FieldDeclaration returnValue = genField(md.getReturnType2(), collector.returnValueFieldName);
-            classDecl.bodyDeclarations().add(returnValue);
+            addField(classDecl, md.getReturnType2(), collector.returnValueFieldName);
         }
     }
 
@@ -612,6 +607,11 @@ public class RewriteFinalizer extends ASTVisitor {
         return fd;
     }
 
+    private void addField(TypeDeclaration classDecl, Type t, String name) {
+        classDecl.bodyDeclarations().add(genField(t, name));
+        VarexCGlobal.addHoistedField(classDecl, name);
+    }
+
     boolean hasReturnValue(MethodDeclaration md) {
         Type retType = md.getReturnType2();
         if (retType == null) {
@@ -1180,6 +1180,7 @@ class StoreStateBeforeMethodCallVisitor extends ASTVisitor {
         stackField.modifiers().add(ast.newModifier(Modifier.ModifierKeyword.STATIC_KEYWORD));
         stackField.setType(ast.newSimpleType(ast.newName("java.util.Stack")));
         mutatedClass.bodyDeclarations().add(0, stackField);
+        VarexCGlobal.addHoistedField(mutatedClass, "stack_" + id);
 
         // store method
         MethodDeclaration storeMethod = ast.newMethodDeclaration();
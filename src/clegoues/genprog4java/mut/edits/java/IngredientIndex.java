@@ -0,0 +1,117 @@
+package clegoues.genprog4java.mut.edits.java;
+
+import clegoues.genprog4java.localization.Localization;
+import clegoues.genprog4java.mut.Mutation;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The fix ingredients that {@link JavaEditFactory} allows for each location and mutation, as positions in the
+ * fix space ({@link Localization#getFixSourceAtoms()}).  Keeping positions rather than atoms keeps entries small,
+ * and keeps the fix space's weights (and its duplicates, which count as extra weight) without copying them.
+ *
+ * Positions are only good for the fix space they were computed on, so the index empties itself whenever the
+ * localization reports a new version of its fix space.
+ *
+ * Saved as a key line followed by one line per entry:
+ *
+ * <pre>location &lt;tab&gt; mutation &lt;tab&gt; position position ...</pre>
+ */
+class IngredientIndex {
+	protected Logger logger = Logger.getLogger(IngredientIndex.class);
+
+	private final Map<Long, int[]> index = new ConcurrentHashMap<Long, int[]>();
+
+	private Localization localization = null;
+	private int fixSpaceVersion = -1;
+
+	private static long key(int location, Mutation mutation) {
+		return ((long) location << 8) | mutation.ordinal();
+	}
+
+	/** empties the index if it was built on some other fix space than localization's current one */
+	private synchronized void validate(Localization localization) {
+		if (this.localization != localization || this.fixSpaceVersion != localization.getFixSpaceVersion()) {
+			index.clear();
+			this.localization = localization;
+			this.fixSpaceVersion = localization.getFixSpaceVersion();
+		}
+	}
+
+	/** @return positions of the allowed ingredients, or null if they haven't been worked out yet */
+	int[] get(Localization localization, int location, Mutation mutation) {
+		this.validate(localization);
+		return index.get(key(location, mutation));
+	}
+
+	void put(Localization localization, int location, Mutation mutation, int[] positions) {
+		this.validate(localization);
+		index.put(key(location, mutation), positions);
+	}
+
+	int size() {
+		return index.size();
+	}
+
+	void save(String path, String key) {
+		try (BufferedWriter out = new BufferedWriter(new FileWriter(path))) {
+			out.write(key);
+			out.write('\n');
+			Mutation[] mutations = Mutation.values();
+			for (Map.Entry<Long, int[]> entry : index.entrySet()) {
+				out.write(Long.toString(entry.getKey() >> 8));
+				out.write('\t');
+				out.write(mutations[(int) (entry.getKey() & 0xff)].name());
+				out.write('\t');
+				for (int position : entry.getValue()) {
+					out.write(position + " ");
+				}
+				out.write('\n');
+			}
+		} catch (IOException e) {
+			logger.error("failed to write ingredient index " + path + ": " + e.getMessage());
+		}
+	}
+
+	/** @return whether an index saved under key was found at path and loaded */
+	boolean load(Localization localization, String path, String key) {
+		File file = new File(path);
+		if (!file.exists()) {
+			return false;
+		}
+		this.validate(localization);
+		try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+			if (!key.equals(in.readLine())) {
+				return false;
+			}
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] fields = line.split("\t", -1);
+				if (fields.length != 3) {
+					continue;
+				}
+				String positionList = fields[2].trim();
+				String[] positionStrings = positionList.isEmpty() ? new String[0] : positionList.split(" ");
+				int[] positions = new int[positionStrings.length];
+				for (int i = 0; i < positions.length; i++) {
+					positions[i] = Integer.parseInt(positionStrings[i]);
+				}
+				index.put(key(Integer.parseInt(fields[0]), Mutation.valueOf(fields[1])), positions);
+			}
+		} catch (IOException | IllegalArgumentException e) {
+			logger.error("failed to read ingredient index " + path + ": " + e.getMessage());
+			index.clear();
+			return false;
+		}
+		logger.info("Loaded ingredients for " + index.size() + " locations and mutations from " + path);
+		return true;
+	}
+}
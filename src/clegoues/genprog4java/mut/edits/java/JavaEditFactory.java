@@ -12,6 +12,7 @@ import clegoues.genprog4java.mut.holes.java.*;
 import clegoues.genprog4java.rep.CachingRepresentation;
 import clegoues.genprog4java.rep.JavaRepresentation;
 import clegoues.genprog4java.rep.WeightedAtom;
+import clegoues.util.WorkerPool;
 import org.apache.log4j.Logger;
 import org.eclipse.jdt.core.dom.*;
 
@@ -20,11 +21,13 @@ import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
 
 @SuppressWarnings("rawtypes")
 public class JavaEditFactory {
 
-	private static HashMap<Integer, List<WeightedAtom>> scopeSafeAtomMap = new HashMap<Integer, List<WeightedAtom>>();
+	/** shared by every variant, since it only depends on the original and the fix space */
+	private static final IngredientIndex ingredientIndex = new IngredientIndex();
 
 	protected Logger logger = Logger.getLogger(JavaEditOperation.class);
 
@@ -40,11 +43,21 @@ public class JavaEditFactory {
 				break;
 			case EXISTING:
 				Path jsonPath = FileSystems.getDefault().getPath(Configuration.outputDir, Configuration.editSerFile);
-				pool = JavaEditPool.deserialize(jsonPath);
-				mergedVariant = findMergedVariant();
+				pool = JavaEditPool.load(jsonPath);
+				if (pool.getShardFolders().isEmpty()) {
+					mergedVariant = findMergedVariant();
+				}
 		}
 	}
 
+	/**
+	 * @return the variant folder of the merged program that encodes an edit of the given shard
+	 */
+	public String programFolder(int shard) {
+		List<String> folders = pool.getShardFolders();
+		return folders.isEmpty() ? mergedVariant : folders.get(shard);
+	}
+
 	/**
 	 * Find the merged variant folder, which should be the folder with the largest postfix number
      *
@@ -122,16 +135,62 @@ public class JavaEditFactory {
 	}
 
 	private List<WeightedAtom> scopeHelper(Location stmtId, JavaRepresentation variant, Mutation mut) {
-		if (JavaEditFactory.scopeSafeAtomMap.containsKey(stmtId.getId())) {
-			return JavaEditFactory.scopeSafeAtomMap.get(stmtId.getId());
+		Localization localization = variant.getLocalization();
+		int[] positions = this.scopeSafePositions(stmtId, variant, mut);
+		List<WeightedAtom> fixAtoms = localization.getFixSourceAtoms();
+		List<WeightedAtom> retVal = new ArrayList<WeightedAtom>(positions.length);
+		for (int position : positions) {
+			retVal.add(fixAtoms.get(position));
 		}
+		return retVal;
+	}
+
+	/**
+	 * works out which fix ingredients could go at a location for a mutation, in parallel across locations, so
+	 * that the search doesn't have to do it a location at a time.
+	 * @param indexFile where to save the result, and load it from if it was saved under key; empty for neither
+	 */
+	public void indexEditSources(final JavaRepresentation original, List<Location> locations,
+			Collection<Mutation> mutations, String indexFile, String key) {
+		Localization localization = original.getLocalization();
+		if (!indexFile.isEmpty() && ingredientIndex.load(localization, indexFile, key)) {
+			return;
+		}
+		List<Callable<Void>> jobs = new ArrayList<Callable<Void>>();
+		for (final Location location : locations) {
+			for (final Mutation mut : mutations) {
+				jobs.add(new Callable<Void>() {
+					@Override
+					public Void call() {
+						scopeSafePositions(location, original, mut);
+						return null;
+					}
+				});
+			}
+		}
+		WorkerPool.invokeAll(jobs);
+		logger.info("Indexed ingredients for " + ingredientIndex.size() + " locations and mutations");
+		if (!indexFile.isEmpty()) {
+			ingredientIndex.save(indexFile, key);
+		}
+	}
+
+	/** @return positions in the fix space of the ingredients allowed at stmtId for mut, from the index if it has them */
+	private int[] scopeSafePositions(Location stmtId, JavaRepresentation variant, Mutation mut) {
 		Localization localization = variant.getLocalization();
+		int[] positions = ingredientIndex.get(localization, stmtId.getId(), mut);
+		if (positions != null) {
+			return positions;
+		}
 
 		JavaStatement potentiallyBuggyStmt = (JavaStatement) stmtId.getLocation();
 		ASTNode faultAST = ((JavaLocation) stmtId).getCodeElement();
-		List<WeightedAtom> retVal = new ArrayList<WeightedAtom>();
+		List<WeightedAtom> fixAtoms = localization.getFixSourceAtoms();
+		int[] retVal = new int[fixAtoms.size()];
+		int found = 0;
 
-		for (WeightedAtom potentialFixAtom : localization.getFixSourceAtoms()) {
+		for (int position = 0; position < fixAtoms.size(); position++) {
+			WeightedAtom potentialFixAtom = fixAtoms.get(position);
 			int index = potentialFixAtom.getAtom();
 			JavaStatement potentialFixStmt = variant.getFromCodeBank(index);
 			ASTNode fixAST = potentialFixStmt.getASTNode();
@@ -229,10 +288,11 @@ public class JavaEditFactory {
 			}
 			// if we made it this far without continuing, we're good to go.
 
-			retVal.add(potentialFixAtom);
+			retVal[found++] = position;
 		}
-		JavaEditFactory.scopeSafeAtomMap.put(stmtId.getId(), retVal);
-		return retVal;
+		positions = Arrays.copyOf(retVal, found);
+		ingredientIndex.put(localization, stmtId.getId(), mut, positions);
+		return positions;
 	}
 
 
@@ -506,14 +566,15 @@ public class JavaEditFactory {
 		switch(editType) {
 		case APPEND: 
 			if(!(locationStmt.getASTNode() instanceof ReturnStatement || locationStmt.getASTNode() instanceof ThrowStatement )){
-				return this.editSources(variant, location,  editType).size() > 0;
+				return this.scopeSafePositions(location, variant, editType).length > 0;
 			}
 			return false;
 		case REPLACE: 
-		case SWAP:
 			// The first check removes cases where there is only one return, but replacing such a return should be possible,
 			// for example, by replacing with another return. Math-22b requires such a change.
 //			return locationStmt.canBeDeleted() && this.editSources(variant, location,  editType).size() > 0;
+			return this.scopeSafePositions(location, variant, editType).length > 0;
+		case SWAP:
 			return this.editSources(variant, location, editType).size() > 0;
 		case DELETE:
 			return locationStmt.canBeDeleted();
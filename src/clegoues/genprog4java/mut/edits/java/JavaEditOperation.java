@@ -34,15 +34,20 @@
 package clegoues.genprog4java.mut.edits.java;
 
 
+import clegoues.genprog4java.java.ClassInfo;
 import clegoues.genprog4java.java.JavaStatement;
 import clegoues.genprog4java.localization.Location;
 import clegoues.genprog4java.mut.EditHole;
 import clegoues.genprog4java.mut.EditOperation;
+import clegoues.genprog4java.mut.holes.java.JavaHole;
 import clegoues.genprog4java.mut.holes.java.JavaLocation;
 import org.eclipse.jdt.core.dom.ASTNode;
 import org.eclipse.jdt.core.dom.MethodDeclaration;
 import org.eclipse.jdt.core.dom.rewrite.ASTRewrite;
 
+import java.util.Collections;
+import java.util.List;
+
 public abstract class JavaEditOperation implements EditOperation<ASTRewrite> {
 
 	private Location<JavaStatement> location = null;
@@ -63,6 +68,19 @@ public abstract class JavaEditOperation implements EditOperation<ASTRewrite> {
 		return this.location;
 	}
 
+	/**
+	 * Classes whose source this edit changes.  Edits are applied by rewriting the class that
+	 * contains their location, so that's the only one.
+	 */
+	public ClassInfo getTouchedClass() {
+		return ((JavaLocation) this.location).getClassInfo();
+	}
+
+	/** statements this edit changes; a test that covers none of them on the original can't see the edit */
+	public List<Integer> getTouchedAtoms() {
+		return Collections.singletonList(this.location.getId());
+	}
+
 	protected JavaEditOperation(JavaLocation location, EditHole source) {
 		this.location = location;
 		this.holeCode = source;
@@ -75,6 +93,22 @@ public abstract class JavaEditOperation implements EditOperation<ASTRewrite> {
 		holeCode = hole; 
 	}
 
+	/**
+	 * identifies this edit without emitting any source: its kind, its location, its hole, and whatever
+	 * else toString() reports (e.g., the operator ROR picked).  toString() alone isn't enough, since some
+	 * edits report only their location.
+	 */
+	public String getEditKey() {
+		String holeKey = "-";
+		if (holeCode instanceof JavaHole) {
+			holeKey = ((JavaHole) holeCode).getKey();
+		} else if (holeCode != null) {
+			holeKey = holeCode.toString();
+		}
+		return this.getClass().getSimpleName() + "(" + (location == null ? -1 : location.getId()) + ")" + holeKey
+				+ "|" + this.toString();
+	}
+
 	public String getVariantFolder() {
 	    if (variantFolder == null)
 	    	throw new RuntimeException("The field variantFolder not initialized");
@@ -5,8 +5,13 @@ import org.apache.log4j.Logger;
 
 import java.io.*;
 import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 
@@ -20,16 +25,46 @@ import java.util.Set;
  * <p> For this reason, we enforce that the {@code JavaEditOperation} being added to the pool overrides {@code toString}.
  * Otherwise an exception is thrown. The {@code toString} should try to incorporate distinguishing information as much
  * as possible.
+ *
+ * <p> Every edit gets a dense int id, its position in the pool, which {@link JavaSavedEdit} hashes and compares
+ * on. Pools are saved in a binary format ({@link #save}) that {@link #load} maps into memory and decodes one
+ * edit at a time, as they are picked; pools saved with Java serialization by earlier versions still load. </p>
+ *
+ * <p> A merged program too large to compile as one is split into shards, each in its own variant folder; the pool
+ * lists those folders, and every edit records the shard that encodes it. Pools without folders predate shards,
+ * and have the one merged program in the last variant folder. </p>
+ *
+ * <pre>
+ * int magic "G4JP", int version, int count, int[count] record offsets,
+ * int shards, then per shard: int length, variant folder,
+ * then per record: byte canCompile, int shard, int length, editString, int length, variantOption (strings UTF-8)
+ * </pre>
  */
 public class JavaEditPool implements Serializable {
+    // as computed for the version that was saved by serialization, so that those pools still load
+    private static final long serialVersionUID = 8226479918638856053L;
+
     protected transient static Logger logger = Logger.getLogger(JavaEditPool.class);
 
+    private static final int MAGIC = 0x47344A50;   // "G4JP"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 12;
+
     private List<JavaSavedEdit> edits = new ArrayList<>();
+    private List<String> shardFolders = new ArrayList<>();
+
+    /** a loaded pool's records, decoded into {@link #decoded} as they are asked for; null if built in memory */
+    private transient ByteBuffer mapped = null;
+    private transient JavaSavedEdit[] decoded = null;
 
     public void addEdits(Set<JavaEditOperation> set, boolean canCompile) {
+        this.addEdits(set, canCompile, 0);
+    }
+
+    public void addEdits(Set<JavaEditOperation> set, boolean canCompile, int shard) {
         for (JavaEditOperation e : set) {
             if (isToStringOverridden(e)) {
-                JavaSavedEdit saved = new JavaSavedEdit(e.toString(), e.getVariantOption(), canCompile);
+                JavaSavedEdit saved = new JavaSavedEdit(edits.size(), e.toString(), e.getVariantOption(), canCompile, shard);
                 edits.add(saved);
             } else {
                 throw new RuntimeException("Make sure " + e.getClass().getName() + " overrides toString()");
@@ -37,14 +72,56 @@ public class JavaEditPool implements Serializable {
         }
     }
 
+    /** @return the variant folder of each shard of the merged program, or an empty list if the pool predates shards */
+    public List<String> getShardFolders() {
+        return shardFolders == null ? Collections.<String>emptyList() : shardFolders;
+    }
+
+    public void setShardFolders(List<String> folders) {
+        this.shardFolders = new ArrayList<>(folders);
+    }
+
     public boolean isEmpty() {
-        return edits.isEmpty();
+        return this.size() == 0;
+    }
+
+    public int size() {
+        return mapped != null ? decoded.length : edits.size();
+    }
+
+    /** @return the edit with the given id */
+    public JavaSavedEdit get(int id) {
+        if (mapped == null) {
+            return edits.get(id);
+        }
+        synchronized (this) {
+            if (decoded[id] == null) {
+                decoded[id] = decode(id);
+            }
+            return decoded[id];
+        }
     }
 
     public JavaSavedEdit pickOne() {
-        int size = edits.size();
+        int size = this.size();
         int index = Configuration.randomizer.nextInt(size);
-        return edits.get(index);
+        return this.get(index);
+    }
+
+    private JavaSavedEdit decode(int id) {
+        ByteBuffer record = mapped.duplicate();
+        record.position(mapped.getInt(HEADER_BYTES + 4 * id));
+        boolean canCompile = record.get() != 0;
+        int shard = record.getInt();
+        String editString = readString(record);
+        String variantOption = readString(record);
+        return new JavaSavedEdit(id, editString, variantOption, canCompile, shard);
+    }
+
+    private static String readString(ByteBuffer record) {
+        byte[] bytes = new byte[record.getInt()];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
     }
 
     /**
@@ -64,6 +141,79 @@ public class JavaEditPool implements Serializable {
         }
     }
 
+    public static void save(JavaEditPool pool, Path path) {
+        int count = pool.size();
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path.toFile())))) {
+            List<byte[]> editStrings = new ArrayList<>(count);
+            List<byte[]> variantOptions = new ArrayList<>(count);
+            List<byte[]> folders = new ArrayList<>();
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(count);
+            int offset = HEADER_BYTES + 4 * count + 4;
+            for (String folder : pool.getShardFolders()) {
+                folders.add(folder.getBytes(StandardCharsets.UTF_8));
+                offset += 4 + folders.get(folders.size() - 1).length;
+            }
+            for (int i = 0; i < count; i++) {
+                JavaSavedEdit edit = pool.get(i);
+                editStrings.add(edit.editString.getBytes(StandardCharsets.UTF_8));
+                variantOptions.add(edit.variantOption.getBytes(StandardCharsets.UTF_8));
+                output.writeInt(offset);
+                offset += 1 + 4 + 4 + editStrings.get(i).length + 4 + variantOptions.get(i).length;
+            }
+            output.writeInt(folders.size());
+            for (byte[] folder : folders) {
+                output.writeInt(folder.length);
+                output.write(folder);
+            }
+            for (int i = 0; i < count; i++) {
+                output.writeByte(pool.get(i).canCompile ? 1 : 0);
+                output.writeInt(pool.get(i).shard);
+                output.writeInt(editStrings.get(i).length);
+                output.write(editStrings.get(i));
+                output.writeInt(variantOptions.get(i).length);
+                output.write(variantOptions.get(i));
+            }
+            logger.info("JavaEditPool of " + count + " edits in " + folders.size() + " shards saved to "
+                    + path.toFile().getAbsolutePath());
+        } catch (IOException e) {
+            logger.error(e.toString());
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** loads a pool written by {@link #save}, or by {@link #serialize} in earlier versions */
+    public static JavaEditPool load(Path path) {
+        JavaEditPool pool = new JavaEditPool();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                return deserialize(path);
+            }
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapped.getInt(0) != MAGIC) {
+                return deserialize(path);
+            }
+            int version = mapped.getInt(4);
+            if (version != VERSION) {
+                throw new RuntimeException("Unsupported JavaEditPool version " + version + " in " + path);
+            }
+            pool.mapped = mapped;
+            pool.decoded = new JavaSavedEdit[mapped.getInt(8)];
+            ByteBuffer shards = mapped.duplicate();
+            shards.position(HEADER_BYTES + 4 * pool.decoded.length);
+            for (int i = shards.getInt(); i > 0; i--) {
+                pool.shardFolders.add(readString(shards));
+            }
+        } catch (IOException e) {
+            logger.error(e.toString());
+            throw new RuntimeException("Failed to load JavaEditPool");
+        }
+        assert !pool.isEmpty() : "Empty JavaEditPool";
+        logger.info("JavaEditPool of " + pool.size() + " edits mapped from " + path.toFile().getAbsolutePath());
+        return pool;
+    }
+
     public static void serialize(JavaEditPool pool, Path path) {
         try (ObjectOutputStream output = new ObjectOutputStream(new FileOutputStream(path.toFile()))) {
             output.writeObject(pool);
@@ -78,6 +228,10 @@ public class JavaEditPool implements Serializable {
         try (ObjectInputStream input = new ObjectInputStream(new FileInputStream(path.toFile()))) {
             JavaEditPool pool = (JavaEditPool) input.readObject();
             assert !pool.isEmpty() : "Empty JavaEditPool";
+            // pools saved before edits had ids
+            for (int i = 0; i < pool.edits.size(); i++) {
+                pool.edits.get(i).setId(i);
+            }
             return pool;
         } catch (IOException | ClassNotFoundException e) {
             logger.error(e.toString());
@@ -85,4 +239,3 @@ public class JavaEditPool implements Serializable {
         }
     }
 }
-
@@ -8,14 +8,31 @@ import java.util.HashMap;
 import java.util.List;
 
 public class JavaSavedEdit extends JavaEditOperation implements Serializable {
+    // as computed for the version without ids, so that pools serialized back then still load
+    private static final long serialVersionUID = -8782865633885395406L;
+
+    /** position in the {@link JavaEditPool}; edits are hashed and compared on it */
+    private int id;
     public String editString;
     public boolean canCompile;
     public String variantOption;
+    /** which of the pool's merged programs encodes the edit; see {@link JavaEditPool#getShardFolders()} */
+    public int shard;
 
-    JavaSavedEdit(String editString, String variantOption, boolean canCompile) {
+    JavaSavedEdit(int id, String editString, String variantOption, boolean canCompile, int shard) {
+        this.id = id;
         this.editString = editString;
         this.variantOption = variantOption;
         this.canCompile = canCompile;
+        this.shard = shard;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    void setId(int id) {
+        this.id = id;
     }
 
     @Override
@@ -27,16 +44,13 @@ public class JavaSavedEdit extends JavaEditOperation implements Serializable {
 
     @Override
     public int hashCode() {
-        return (editString + variantOption + canCompile).hashCode();
+        return id;
     }
 
     @Override
     public boolean equals(Object obj) {
         if (obj instanceof JavaSavedEdit) {
-            JavaSavedEdit that = (JavaSavedEdit) obj;
-            return that.variantOption.equals(this.variantOption)
-                    && that.editString.equals(this.editString)
-                    && that.canCompile == this.canCompile;
+            return ((JavaSavedEdit) obj).id == this.id;
         }
         return false;
     }
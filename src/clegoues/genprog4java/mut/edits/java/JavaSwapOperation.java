@@ -9,6 +9,7 @@ import org.eclipse.jdt.core.dom.Expression;
 import org.eclipse.jdt.core.dom.IfStatement;
 import org.eclipse.jdt.core.dom.rewrite.ASTRewrite;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 
@@ -72,6 +73,12 @@ public class JavaSwapOperation extends JavaEditOperation {
 		applyEditAndUpdateNodeStore(rewriter, newBlock2, nodeStore, fixCode.getCode(), origLocationNode2, null);
 	}
 
+	@Override
+	public List<Integer> getTouchedAtoms() {
+		StatementHole fixHole = (StatementHole) this.getHoleCode();
+		return Arrays.asList(this.getLocation().getId(), fixHole.getCodeBankId());
+	}
+
 	@Override
 	public String toString() {
 		StatementHole fixHole = (StatementHole) this.getHoleCode();
@@ -16,6 +16,11 @@ public class ExpChoiceHole extends ExpHole {
 	public int getChoice() {
 		return this.choice;
 	}
+
+	@Override
+	public String getKey() {
+		return super.getKey() + ":" + this.choice;
+	}
 	
 
 }
@@ -29,6 +29,11 @@ public class ExpHole  extends JavaHole {
 		this.holeCode = (Expression) code;		
 	}
 
+	@Override
+	public String getKey() {
+		return super.getKey() + ":" + nodeKey(this.locationExp);
+	}
+
 	public Expression getLocationExp() {
 		return locationExp;
 	}
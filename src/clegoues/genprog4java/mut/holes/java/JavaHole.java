@@ -44,6 +44,22 @@ public abstract class JavaHole implements EditHole<ASTNode> {
 		return ((Integer) this.getCodeBankId()).toString();
 	}
 
+	/** identifies what this hole would put in, and where, without emitting any source */
+	public String getKey() {
+		return this.getName() + ":" + this.getCodeBankId() + ":" + nodeKey(this.getCode());
+	}
+
+	/** a node of the original program, by its type and position; a node made up for an edit, by its text */
+	public static String nodeKey(ASTNode node) {
+		if (node == null) {
+			return "-";
+		}
+		if (node.getStartPosition() < 0) {
+			return node.getNodeType() + "'" + node.toString() + "'";
+		}
+		return node.getNodeType() + "@" + node.getStartPosition() + "+" + node.getLength();
+	}
+
 	/** note that this assumes that all returned SubExpsHoles should have equal weight
 	 * (I wrote it for the bounds/range checking, null checking, cast checking, and off-by-one templates, 
 	 * for which this assumption holds) 
@@ -30,6 +30,11 @@ public class MethodInfoHole extends JavaHole  {
 		this.holeParent = code;		
 	}
 
+	@Override
+	public String getKey() {
+		return super.getKey() + ":" + (this.replacerInfo == null ? "-" : this.replacerInfo.getKey());
+	}
+
 	public ASTNode getHoleParent() {
 		return holeParent;
 	}
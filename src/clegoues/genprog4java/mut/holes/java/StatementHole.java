@@ -33,6 +33,11 @@ public class StatementHole extends JavaHole {
 		this.holeCode = (Statement) code;		
 	}
 
+	@Override
+	public String getKey() {
+		return super.getKey() + ":" + nodeKey(this.holeSite);
+	}
+
 	public ASTNode getHoleSite() {
 		return holeSite;
 	}
@@ -38,6 +38,17 @@ public class SubExpsHole extends JavaHole {
 		return holeParent;
 	}
 
+	@Override
+	public String getKey() {
+		StringBuilder key = new StringBuilder(super.getKey());
+		if (subExps != null) {
+			for (ASTNode subExp : subExps) {
+				key.append(":").append(nodeKey(subExp));
+			}
+		}
+		return key.toString();
+	}
+
 	@Override
 	public void setCode(ASTNode hole) {
 		this.holeParent = hole;
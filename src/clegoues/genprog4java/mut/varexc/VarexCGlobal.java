@@ -1,6 +1,8 @@
 package clegoues.genprog4java.mut.varexc;
 
 import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.AbstractTypeDeclaration;
 import org.eclipse.jdt.core.dom.CompilationUnit;
 import org.eclipse.jdt.core.dom.ImportDeclaration;
 import org.eclipse.jdt.core.dom.TypeDeclaration;
@@ -21,6 +23,42 @@ public class VarexCGlobal {
         variantNames.add(n);
     }
 
+    /**
+     * Static fields that RewriteFinalizer hoisted locals (and their loop and stack state) into, as
+     * binary class name#field.  A test driver that runs many variants in one JVM puts them back in between.
+     */
+    private static LinkedHashSet<String> hoistedFields = new LinkedHashSet<>();
+    public static void addHoistedField(TypeDeclaration td, String field) {
+        String className = binaryName(td);
+        if (className != null) {
+            hoistedFields.add(className + "#" + field);
+        }
+    }
+
+    /** binary name of td, or null for local classes, which can't be looked up by name */
+    private static String binaryName(TypeDeclaration td) {
+        String name = td.getName().getIdentifier();
+        ASTNode parent = td.getParent();
+        while (parent instanceof AbstractTypeDeclaration) {
+            name = ((AbstractTypeDeclaration) parent).getName().getIdentifier() + "$" + name;
+            parent = parent.getParent();
+        }
+        if (!(parent instanceof CompilationUnit)) {
+            return null;
+        }
+        CompilationUnit cu = (CompilationUnit) parent;
+        return cu.getPackage() == null ? name : cu.getPackage().getName().getFullyQualifiedName() + "." + name;
+    }
+
+    /**
+     * Start over on the options and hoisted fields, before rewriting another program, so that each program's
+     * GlobalOptions and HoistedFields only list its own
+     */
+    public static void reset() {
+        variantNames.clear();
+        hoistedFields.clear();
+    }
+
     public static int getNextMethodID() {
         return methodCnt++;
     }
@@ -38,6 +76,30 @@ public class VarexCGlobal {
         return buf.toString();
     }
 
+    /**
+     * Generate a class that lists the hoisted fields, as ;-separated chunks that each stay clear of the
+     * class file's limit on constant strings
+     */
+    public static String getHoistedFieldsCodeAsString() {
+        StringBuffer buf = new StringBuffer();
+
+        buf.append("package varexc;\n\n");
+        buf.append("public class HoistedFields {\n");
+        buf.append("\tpublic static final String[] FIELDS = {\n");
+        StringBuilder chunk = new StringBuilder();
+        for (String f : hoistedFields) {
+            if (chunk.length() + f.length() > 30000) {
+                buf.append("\t\t\"" + chunk + "\",\n");
+                chunk.setLength(0);
+            }
+            chunk.append(f).append(';');
+        }
+        buf.append("\t\t\"" + chunk + "\"\n");
+        buf.append("\t};\n");
+        buf.append("}\n");
+        return buf.toString();
+    }
+
     public static void addImportGlobalOptions(CompilationUnit cu, ASTRewrite rewriter) {
         AST ast = rewriter.getAST();
         ImportDeclaration id = ast.newImportDeclaration();
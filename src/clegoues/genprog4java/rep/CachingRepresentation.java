@@ -36,6 +36,8 @@ package clegoues.genprog4java.rep;
 import clegoues.genprog4java.fitness.Fitness;
 import clegoues.genprog4java.fitness.FitnessValue;
 import clegoues.genprog4java.fitness.TestCase;
+import clegoues.genprog4java.fitness.TestResultChannel;
+import clegoues.genprog4java.fitness.TestServerClient;
 import clegoues.genprog4java.java.ClassInfo;
 import clegoues.genprog4java.main.Configuration;
 import clegoues.genprog4java.mut.EditOperation;
@@ -48,11 +50,22 @@ import org.apache.log4j.Logger;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static clegoues.util.ConfigurationBuilder.BOOL_ARG;
+import static clegoues.util.ConfigurationBuilder.DOUBLE;
+import static clegoues.util.ConfigurationBuilder.INT;
 
 @SuppressWarnings("rawtypes")
 public abstract class CachingRepresentation<G extends EditOperation> extends
@@ -70,14 +83,73 @@ Representation<G>  {
 			.inGroup( "CachingRepresentation Parameters" )
 			.build();
 
+	public static boolean useTestServer = ConfigurationBuilder.of( BOOL_ARG )
+			.withVarName( "useTestServer" )
+			.withDefault( "false" )
+			.withHelp( "run tests on a long-lived test server instead of a fresh JVM per test" )
+			.inGroup( "CachingRepresentation Parameters" )
+			.build();
+
+	public static int testServerMaxRuns = ConfigurationBuilder.of( INT )
+			.withVarName( "testServerMaxRuns" )
+			.withDefault( "200" )
+			.withHelp( "number of tests after which a test server is replaced with a fresh one" )
+			.inGroup( "CachingRepresentation Parameters" )
+			.build();
+
+	public static boolean populationTests = ConfigurationBuilder.of( BOOL_ARG )
+			.withVarName( "populationTests" )
+			.withDefault( "false" )
+			.withHelp( "in existing mode, run a generation's tests on all of its variants in one JVM" )
+			.inGroup( "CachingRepresentation Parameters" )
+			.build();
+
+	public static boolean populationSharedLoader = ConfigurationBuilder.of( BOOL_ARG )
+			.withVarName( "populationSharedLoader" )
+			.withDefault( "false" )
+			.withHelp( "with populationTests, load the merged program once and reset its variant options and hoisted "
+					+ "fields between variants, rather than reloading it for each; only for tests that leave no other static state" )
+			.inGroup( "CachingRepresentation Parameters" )
+			.build();
+
+	public static boolean batchTests = ConfigurationBuilder.of( BOOL_ARG )
+			.withVarName( "batchTests" )
+			.withDefault( "false" )
+			.withHelp( "run all of a variant's pending tests in one runner invocation rather than one per test" )
+			.inGroup( "CachingRepresentation Parameters" )
+			.build();
+
+	public static double testTimeoutFactor = ConfigurationBuilder.of( DOUBLE )
+			.withVarName( "testTimeoutFactor" )
+			.withDefault( "10" )
+			.withHelp( "a variant gets this many times as long as the original took on a test before it's cut off" )
+			.inGroup( "CachingRepresentation Parameters" )
+			.build();
+
+	public static int testTimeoutFloor = ConfigurationBuilder.of( INT )
+			.withVarName( "testTimeoutFloor" )
+			.withDefault( "5000" )
+			.withHelp( "ms added to every test timeout, for JVM startup and noise" )
+			.inGroup( "CachingRepresentation Parameters" )
+			.build();
+
+	/** longest any test gets, and what tests get when we don't know how long they took on the original */
+	private static final long maxTestMillis = 200000;
+
 	public static String sanityFilename = "repair.sanity";
 	public static String sanityExename = "repair.sanity";
 
 	private double fitness = -1.0;
 
-	public ArrayList<Pair<ClassInfo, String>> alreadySourceBuffers = null;
+	public volatile ArrayList<Pair<ClassInfo, String>> alreadySourceBuffers = null;
+
+	public static AtomicInteger sequence = new AtomicInteger(0);
 
-	public static int sequence = 0;
+	/** variant folder handed out ahead of compilation, see {@link #reserveVariantFolder()} */
+	private String reservedVariantFolder = null;
+
+	/** the ASTs behind the source buffers are shared between variants and are not thread-safe */
+	private static final Object sourceBufferLock = new Object();
 
 	public CachingRepresentation(ArrayList<G> genome2) {
 		super(genome2);
@@ -88,9 +160,18 @@ Representation<G>  {
 	}
 
 	public static String newVariantFolder() {
-		String result = String.format("variant%d", sequence);
-		sequence++;
-		return result;
+		return String.format("variant%d", sequence.getAndIncrement());
+	}
+
+	/**
+	 * Picks the variant folder now rather than at compile time.  Used when variants are
+	 * evaluated concurrently, so that folder names still follow population order.
+	 */
+	@Override
+	public void reserveVariantFolder() {
+		if (this.alreadyCompiled == null && this.reservedVariantFolder == null) {
+			this.reservedVariantFolder = CachingRepresentation.newVariantFolder();
+		}
 	}
 
 	@Override
@@ -144,9 +225,7 @@ Representation<G>  {
 		for (TestCase posTest : Fitness.positiveTests) {
 			testNumber++;
 			logger.info("Checking test number " + testNumber + " out of " + Fitness.positiveTests.size());
-			FitnessValue res = this.internalTestCase(
-					CachingRepresentation.sanityExename,
-					CachingRepresentation.sanityFilename, posTest, false);
+			FitnessValue res = this.timedSanityTest(posTest);
 			if (!res.isAllPassed()) {
 				testsOutOfScope++;
 				logger.info(testsOutOfScope + " tests out of scope so far, out of " + Fitness.positiveTests.size());
@@ -176,9 +255,7 @@ Representation<G>  {
 		testNum = 1;
 		for (TestCase negTest : Fitness.negativeTests) {
 			logger.info("\tn" + testNum + ": ");
-			FitnessValue res = this.internalTestCase(
-					CachingRepresentation.sanityExename,
-					CachingRepresentation.sanityFilename, negTest, false);
+			FitnessValue res = this.timedSanityTest(negTest);
 			if (res.isAllPassed()) {
 				logger.info("true (1)\n");
 				logger.error("cacheRep: sanity: "
@@ -189,6 +266,9 @@ Representation<G>  {
 			logger.info("false (0)\n");
 			testNum++;
 		}
+		List<TestCase> timed = new ArrayList<TestCase>(passingTests);
+		timed.addAll(Fitness.negativeTests);
+		Fitness.printTestTimings(timed);
 		this.cleanup();
 		this.updated();
 		logger.info("sanity checking completed (time taken = "
@@ -197,10 +277,78 @@ Representation<G>  {
 	}
 
 
-	@Override
-	public FitnessValue testCase(TestCase test, boolean doingCoverage) {
+	/** runs test on the original with the full timeout, noting how long it took as the test's baseline */
+	private FitnessValue timedSanityTest(TestCase test) {
+		test.setBaselineMillis(-1);
+		long start = System.currentTimeMillis();
+		FitnessValue res = this.internalTestCase(
+				CachingRepresentation.sanityExename,
+				CachingRepresentation.sanityFilename, test, false);
+		test.setBaselineMillis(System.currentTimeMillis() - start);
+		return res;
+	}
+
+	/**
+	 * how long a variant gets on test before we call it a timeout: testTimeoutFactor times the test's
+	 * time on the original, plus testTimeoutFloor, and never more than maxTestMillis
+	 */
+	public static long testTimeout(TestCase test) {
+		if (test.getBaselineMillis() < 0) {
+			return maxTestMillis;
+		}
+		return Math.min(maxTestMillis, (long) (testTimeoutFactor * test.getBaselineMillis()) + testTimeoutFloor);
+	}
+
+	private static long testTimeout(List<TestCase> tests) {
+		long timeout = 0;
+		for (TestCase test : tests) {
+			timeout += testTimeout(test);
+		}
+		return timeout;
+	}
+
+	/** a failing result for test, which was cut off for running too long */
+	private static FitnessValue timedOut(TestCase test) {
+		FitnessValue posFit = new FitnessValue();
+		posFit.setTestClassName(test.getTestName());
+		posFit.setAllPassed(false);
+		posFit.setTimedOut(true);
+		return posFit;
+	}
+
+	/**
+	 * after a batch was cut off for running too long, the first test without results is the one that was
+	 * running at the time
+	 */
+	private static void markTimedOut(List<TestCase> tests, Map<String, FitnessValue> results) {
+		CachingRepresentation.markTimedOut(CachingRepresentation.testKeys(tests), tests, results);
+	}
+
+	/** as {@link #markTimedOut(List, Map)}, with results keyed by keys rather than the tests themselves */
+	private static void markTimedOut(List<String> keys, List<TestCase> tests, Map<String, FitnessValue> results) {
+		for (int i = 0; i < tests.size(); i++) {
+			if (!results.containsKey(keys.get(i))) {
+				results.put(keys.get(i), CachingRepresentation.timedOut(tests.get(i)));
+				return;
+			}
+		}
+	}
+
+	/** the tests as passed to the runners */
+	private static List<String> testKeys(List<TestCase> tests) {
+		List<String> keys = new ArrayList<String>(tests.size());
+		for (TestCase test : tests) {
+			keys.add(test.toString());
+		}
+		return keys;
+	}
+
+	/** compiles the variant if need be; returns the result to report for test if it doesn't compile, else null */
+	private FitnessValue compileForTesting(TestCase test) {
 		if (this.alreadyCompiled == null) {
-			String newName = CachingRepresentation.newVariantFolder();
+			String newName = this.reservedVariantFolder != null ?
+					this.reservedVariantFolder : CachingRepresentation.newVariantFolder();
+			this.reservedVariantFolder = null;
 			this.variantFolder = newName;
 			if (Configuration.editMode == Configuration.EditMode.PRE_COMPUTE && getGenome().size() == 1) {
 			    getGenome().get(0).setVariantFolder(newName);
@@ -220,6 +368,15 @@ Representation<G>  {
 			this.setFitness(0.0);
 			return compileFail;
 		}
+		return null;
+	}
+
+	@Override
+	public FitnessValue testCase(TestCase test, boolean doingCoverage) {
+		FitnessValue compileFail = this.compileForTesting(test);
+		if (compileFail != null) {
+			return compileFail;
+		}
 		if (!doingCoverage && Configuration.editMode == Configuration.EditMode.PRE_COMPUTE) {
 			FitnessValue dummy = new FitnessValue();
 			dummy.setAllPassed(false);
@@ -235,13 +392,144 @@ Representation<G>  {
 
 	}
 
+	/**
+	 * with batchTests on, runs the tests in one runner invocation (one server request, or one JVM).
+	 * Tests the batch has no answer for (the runner died or timed out part way) are retried one at a time.
+	 */
+	@Override
+	public List<FitnessValue> testCases(List<TestCase> tests, boolean stopOnFailure) {
+		// the pool runner used for existing edits without a server only takes one test at a time
+		boolean canBatch = batchTests && tests.size() > 1
+				&& (useTestServer || Configuration.editMode != Configuration.EditMode.EXISTING);
+		if (!canBatch) {
+			return super.testCases(tests, stopOnFailure);
+		}
+		List<FitnessValue> results = new ArrayList<FitnessValue>(tests.size());
+		FitnessValue compileFail = this.compileForTesting(tests.get(0));
+		if (compileFail != null || Configuration.editMode == Configuration.EditMode.PRE_COMPUTE) {
+			// no point running anything: every test gets the same answer testCase would give
+			return super.testCases(tests, stopOnFailure);
+		}
+		Map<String, FitnessValue> batch = this.internalTestCases(this.variantFolder, tests, stopOnFailure);
+		for (TestCase test : tests) {
+			FitnessValue result = batch.get(test.toString());
+			if (result == null) {
+				result = this.testCase(test);
+			}
+			results.add(result);
+			if (stopOnFailure && !result.isAllPassed()) {
+				break;
+			}
+		}
+		return results;
+	}
+
+
+	/**
+	 * In EXISTING mode every variant is (a shard of) the merged program with a different set of variant options on, so
+	 * the whole lot can be run in one {@link clegoues.genprog4java.fitness.JUnitPopulationRunner} JVM that
+	 * switches options between variants, rather than a JVM per variant and test.  Variants that don't
+	 * compile are left out; so are the rest of the variants if the runner is cut off part way.
+	 */
+	@Override
+	public List<Map<String, FitnessValue>> testPopulation(List<? extends Representation<G>> variants,
+			List<TestCase> tests) {
+		if (Configuration.editMode != Configuration.EditMode.EXISTING || !populationTests || tests.isEmpty()) {
+			return null;
+		}
+		List<Map<String, FitnessValue>> results = new ArrayList<Map<String, FitnessValue>>(variants.size());
+		List<CachingRepresentation<G>> toRun = new ArrayList<CachingRepresentation<G>>();
+		List<Integer> toRunAt = new ArrayList<Integer>();
+		for (int i = 0; i < variants.size(); i++) {
+			results.add(new HashMap<String, FitnessValue>());
+			if (variants.get(i) instanceof CachingRepresentation
+					&& ((CachingRepresentation<G>) variants.get(i)).compileForTesting(tests.get(0)) == null) {
+				toRun.add((CachingRepresentation<G>) variants.get(i));
+				toRunAt.add(i);
+			}
+		}
+		if (toRun.isEmpty()) {
+			return results;
+		}
+		// variants run in the shard of the merged program that their edits are in, one JVM per shard
+		Map<String, List<Integer>> byProgram = new LinkedHashMap<String, List<Integer>>();
+		for (int i = 0; i < toRun.size(); i++) {
+			String program = toRun.get(i).variantFolder;
+			if (!byProgram.containsKey(program)) {
+				byProgram.put(program, new ArrayList<Integer>());
+			}
+			byProgram.get(program).add(i);
+		}
+		for (List<Integer> members : byProgram.values()) {
+			List<CachingRepresentation<G>> group = new ArrayList<CachingRepresentation<G>>(members.size());
+			for (int i : members) {
+				group.add(toRun.get(i));
+			}
+			Map<String, FitnessValue> byKey = this.runPopulation(group, tests);
+			if (byKey == null) {
+				return null;
+			}
+			for (int i = 0; i < group.size(); i++) {
+				Map<String, FitnessValue> variantResults = results.get(toRunAt.get(members.get(i)));
+				for (TestCase test : tests) {
+					FitnessValue result = byKey.get(i + "\t" + test.toString());
+					if (result != null) {
+						variantResults.put(test.toString(), result);
+					}
+				}
+			}
+		}
+		return results;
+	}
+
+	/** runs tests on variants of the one merged program; results are keyed by position in group, tab, test */
+	private Map<String, FitnessValue> runPopulation(List<CachingRepresentation<G>> group, List<TestCase> tests) {
+		File request;
+		try {
+			request = File.createTempFile("population", ".txt");
+		} catch (IOException e) {
+			logger.error("cannot create a population request: " + e.getMessage());
+			return null;
+		}
+		List<String> keys = new ArrayList<String>(group.size() * tests.size());
+		List<TestCase> keyedTests = new ArrayList<TestCase>(group.size() * tests.size());
+		try (PrintWriter out = new PrintWriter(new FileWriter(request))) {
+			out.println(group.get(0).variantClassPath(group.get(0).variantFolder));
+			for (int i = 0; i < group.size(); i++) {
+				StringBuilder options = new StringBuilder();
+				for (int option : group.get(i).variantOptionIds(group.get(i).variantFolder)) {
+					options.append(option).append(' ');
+				}
+				out.println(i + "\t" + options.toString().trim());
+				for (TestCase test : tests) {
+					keys.add(i + "\t" + test.toString());
+					keyedTests.add(test);
+				}
+			}
+		} catch (IOException e) {
+			logger.error("cannot write population request " + request + ": " + e.getMessage());
+			request.delete();
+			return null;
+		}
+		logger.info("Running " + tests.size() + " tests on " + group.size() + " variants of "
+				+ group.get(0).variantFolder + " in one JVM");
+		Map<String, FitnessValue> byKey = this.executeTestCommand(
+				this.internalPopulationTestCommand(request.getAbsolutePath(), tests),
+				CachingRepresentation.testTimeout(keyedTests), keys, keyedTests);
+		request.delete();
+		return byKey;
+	}
 
 	@Override
 	protected List<Pair<ClassInfo, String>> computeSourceBuffers() {
 		if (this.alreadySourceBuffers != null) {
 			return this.alreadySourceBuffers;
 		} else {
-			this.alreadySourceBuffers = this.internalComputeSourceBuffers();
+			synchronized (sourceBufferLock) {
+				if (this.alreadySourceBuffers == null) {
+					this.alreadySourceBuffers = this.internalComputeSourceBuffers();
+				}
+			}
 			return this.alreadySourceBuffers;
 		}
 	}
@@ -281,57 +569,285 @@ Representation<G>  {
 		return ret;
 	}
 
+	/** splits the output of a batched run into per-test results, keyed by test (as passed to the runner) */
+	private static Map<String, FitnessValue> parseBatchResults(List<TestCase> tests, String output) {
+		return CachingRepresentation.parseBatchResults(CachingRepresentation.testKeys(tests), tests, output);
+	}
+
+	/** as {@link #parseBatchResults(List, String)}, for a runner that names test i keys[i] */
+	private static Map<String, FitnessValue> parseBatchResults(List<String> keys, List<TestCase> tests,
+			String output) {
+		Map<String, TestCase> byName = new HashMap<String, TestCase>();
+		for (int i = 0; i < tests.size(); i++) {
+			byName.put(keys.get(i), tests.get(i));
+		}
+		Map<String, FitnessValue> results = new HashMap<String, FitnessValue>();
+		String current = null;
+		StringBuilder chunk = new StringBuilder();
+		for (String line : (output + "\n[TEST]:").split("\n")) {
+			if (line.startsWith("[TEST]:")) {
+				// a test with no results yet was cut off by a timeout or crash
+				if (current != null && byName.containsKey(current) && chunk.indexOf("[SUCCESS]:") >= 0) {
+					results.put(current, CachingRepresentation.resultsFromOutput(
+							byName.get(current).getTestName(), chunk.toString()));
+				}
+				current = line.substring("[TEST]:".length()).trim();
+				chunk.setLength(0);
+			} else {
+				chunk.append(line).append('\n');
+			}
+		}
+		return results;
+	}
+
 	protected abstract ArrayList<Pair<ClassInfo, String>> internalComputeSourceBuffers();
 
+	/** command that runs all of tests on a variant in one JVM under jacoco, as JUnitCoverageRunner */
+	protected abstract CommandLine internalCoverageTestCaseCommand(String exeName, List<TestCase> tests,
+			String sessionsFile);
+
+	@Override
+	public Map<String, FitnessValue> testCasesWithCoverage(List<TestCase> tests, String sessionsFile) {
+		this.writeCompiledClasses();
+		return this.executeTestCommand(this.internalCoverageTestCaseCommand(this.variantFolder, tests, sessionsFile),
+				maxTestMillis * tests.size(), tests);
+	}
+
+	/** command that runs all of tests on a variant in one JVM, as JUnitTestRunner --batch */
+	protected abstract CommandLine internalBatchTestCaseCommand(String exeName, List<TestCase> tests,
+			boolean stopOnFailure);
+
+	/**
+	 * command that runs tests on the population described in requestFile in one JVM, as
+	 * JUnitPopulationRunner; the merged program must only be on the classpath given in the file
+	 */
+	protected abstract CommandLine internalPopulationTestCommand(String requestFile, List<TestCase> tests);
+
+	/** classpath a test server needs to run tests on this variant; libs are already on the server's own */
+	protected abstract String variantClassPath(String exeName);
+
+	/**
+	 * ids of the variant options to switch on when running tests on the program in exeName, if any, as
+	 * given by {@link clegoues.genprog4java.fitness.VariantOptions#ids}
+	 */
+	protected abstract int[] variantOptionIds(String exeName);
+
+	/** class files of a variant that was compiled without touching disk, or null */
+	protected abstract Map<String, byte[]> compiledClassesInMemory();
+
+	/** puts class files compiled in memory on disk, for tests that need a JVM of their own */
+	protected abstract void writeCompiledClasses();
+
+	private static FitnessValue resultsFromOutput(String testName, String output) {
+		FitnessValue posFit = CachingRepresentation.parseTestResults(testName, output);
+		if (output.contains("No tests found matching Method")) {
+			System.err.println("Ignoring no tests found issue from the JUnitRunner");
+			posFit.setAllPassed(true);	// JUnitRunner issue, ignoring for now
+		}
+		return posFit;
+	}
+
+	private FitnessValue internalTestCaseOnServer(String exeName, TestCase thisTest) {
+		TestServerClient client = TestServerClient.forCurrentThread();
+		String output = client.runTest(this.variantClassPath(exeName),
+				thisTest.toString(), this.variantOptionIds(exeName), exeName, this.compiledClassesInMemory(),
+				CachingRepresentation.testTimeout(thisTest), testServerMaxRuns);
+		if (output == null && client.lastRequestTimedOut()) {
+			return CachingRepresentation.timedOut(thisTest);
+		} else if (output == null) {
+			FitnessValue posFit = new FitnessValue();
+			posFit.setTestClassName(thisTest.getTestName());
+			posFit.setAllPassed(false);
+			return posFit;
+		}
+		return CachingRepresentation.resultsFromOutput(thisTest.getTestName(), output);
+	}
+
+	private Map<String, FitnessValue> internalTestCases(String exeName, List<TestCase> tests, boolean stopOnFailure) {
+		if (!useTestServer) {
+			this.writeCompiledClasses();
+			return this.executeTestCommand(this.internalBatchTestCaseCommand(exeName, tests, stopOnFailure),
+					CachingRepresentation.testTimeout(tests), tests);
+		}
+		List<String> testNames = new ArrayList<String>(tests.size());
+		for (TestCase test : tests) {
+			testNames.add(test.toString());
+		}
+		TestServerClient client = TestServerClient.forCurrentThread();
+		String output = client.runTests(this.variantClassPath(exeName), testNames,
+				this.variantOptionIds(exeName), exeName, this.compiledClassesInMemory(), stopOnFailure,
+				CachingRepresentation.testTimeout(tests), testServerMaxRuns);
+		Map<String, FitnessValue> results = CachingRepresentation.parseBatchResults(tests, output);
+		if (client.lastRequestTimedOut()) {
+			CachingRepresentation.markTimedOut(tests, results);
+		}
+		return results;
+	}
+
 	protected FitnessValue internalTestCase(String sanityExename,
 			String sanityFilename, TestCase thisTest, boolean doingCoverage) {
 
+		// coverage needs the jacoco agent, so it always gets a JVM of its own
+		if (useTestServer && !doingCoverage) {
+			return this.internalTestCaseOnServer(sanityExename, thisTest);
+		}
+		this.writeCompiledClasses();
 		CommandLine command = this.internalTestCaseCommand(sanityExename,
 				sanityFilename, thisTest, doingCoverage);
-		// System.out.println("command: " + command.toString());
-		ExecuteWatchdog watchdog = new ExecuteWatchdog(200000);
+		// jacoco slows tests down, so coverage runs don't get held to the baseline
+		long timeout = doingCoverage ? maxTestMillis : CachingRepresentation.testTimeout(thisTest);
+		FitnessValue posFit = this.executeTestCommand(command, timeout,
+				Collections.singletonList(thisTest)).get(thisTest.toString());
+		if (posFit == null) {
+			posFit = new FitnessValue();
+			posFit.setAllPassed(false);
+		}
+		return posFit;
+	}
+
+	/**
+	 * keeps only the lines of a runner's stdout that could be results ([SUCCESS]: and friends), so that
+	 * a runner without a {@link TestResultChannel} costs the same to read however much the tests print
+	 */
+	private static class ResultLinesOutputStream extends OutputStream {
+		private static final int maxLine = 512;
+		private final ByteArrayOutputStream kept = new ByteArrayOutputStream();
+		private final byte[] line = new byte[maxLine];
+		private int length = 0;
+
+		@Override
+		public void write(int b) {
+			if (b == '\n') {
+				this.endLine();
+			} else if (length < maxLine) {
+				line[length++] = (byte) b;
+			}
+		}
+
+		private void endLine() {
+			String s = new String(line, 0, length, StandardCharsets.UTF_8);
+			if (s.startsWith("[") || s.contains("No tests found matching Method")) {
+				kept.write(line, 0, length);
+				kept.write('\n');
+			}
+			length = 0;
+		}
+
+		public String getKept() {
+			if (length > 0) {
+				this.endLine();
+			}
+			return new String(kept.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
+	/** runner stderr is only for our own error messages, so anything past the first few KB is dropped */
+	private static class CappedOutputStream extends ByteArrayOutputStream {
+		private static final int cap = 64 * 1024;
+
+		@Override
+		public synchronized void write(int b) {
+			if (count < cap) {
+				super.write(b);
+			}
+		}
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len) {
+			super.write(b, off, Math.min(len, Math.max(0, cap - count)));
+		}
+	}
+
+	/**
+	 * runs a test command in its own JVM, with the runner reporting to a {@link TestResultChannel}.
+	 * Falls back to its stdout for runners that predate the channel.
+	 * @param tests the tests the command runs
+	 * @return results of the tests that finished, keyed by test (as passed to the runner)
+	 */
+	private Map<String, FitnessValue> executeTestCommand(CommandLine command, long timeoutMillis,
+			List<TestCase> tests) {
+		return this.executeTestCommand(command, timeoutMillis, CachingRepresentation.testKeys(tests), tests);
+	}
+
+	/**
+	 * as {@link #executeTestCommand(CommandLine, long, List)}, for a runner that reports test i as keys[i]
+	 * @return results of the tests that finished, keyed by key
+	 */
+	private Map<String, FitnessValue> executeTestCommand(CommandLine command, long timeoutMillis,
+			List<String> keys, List<TestCase> tests) {
+		Map<String, FitnessValue> results = new HashMap<String, FitnessValue>();
+		File channel;
+		try {
+			channel = File.createTempFile("results", ".bin");
+		} catch (IOException e) {
+			logger.error("cannot create a test result channel: " + e.getMessage());
+			return results;
+		}
+		CommandLine withChannel = new CommandLine(command.getExecutable());
+		withChannel.addArgument("-D" + TestResultChannel.PROPERTY + "=" + channel.getAbsolutePath());
+		withChannel.addArguments(command.getArguments(), false);
+
+		// System.out.println("command: " + withChannel.toString());
+		ExecuteWatchdog watchdog = new ExecuteWatchdog(timeoutMillis);
 		DefaultExecutor executor = new DefaultExecutor();
 		String workingDirectory = System.getProperty("user.dir");
 		executor.setWorkingDirectory(new File(workingDirectory));
 		executor.setWatchdog(watchdog);
 
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
-		ByteArrayOutputStream errOut = new ByteArrayOutputStream();
+		ResultLinesOutputStream out = new ResultLinesOutputStream();
+		ByteArrayOutputStream errOut = new CappedOutputStream();
 		executor.setExitValue(0);
 
 		executor.setStreamHandler(new PumpStreamHandler(out, errOut));
-		FitnessValue posFit = new FitnessValue();
+		String output = null;
 
 		try {
-			executor.execute(command);
-			out.flush();
-			errOut.flush();
-			String output = out.toString();
+			executor.execute(withChannel);
+			output = out.getKept();
 //			System.out.println(output);	// DEBUG: can be useful for debugging
-			out.reset();
-			errOut.reset();
-			posFit = CachingRepresentation.parseTestResults(
-					thisTest.getTestName(), output);
-			if (output.contains("No tests found matching Method")) {
-				System.err.println("Ignoring no tests found issue from the JUnitRunner");
-				posFit.setAllPassed(true);	// JUnitRunner issue, ignoring for now
-			}
 
 		} catch (ExecuteException exception) {
 			String errOutput = errOut.toString();
 			System.err.println("Error executing test case: " + errOutput);
-			posFit.setAllPassed(false);
 		} catch (Exception e) {
-		} finally {
-			if (out != null)
-				try {
-					out.close();
-				} catch (IOException e) {
-					// you know, having to either catch or throw
-					// all exceptions is really tedious.
+		}
+
+		Map<String, TestCase> byName = new HashMap<String, TestCase>();
+		for (int i = 0; i < tests.size(); i++) {
+			byName.put(keys.get(i), tests.get(i));
+		}
+		try {
+			// a runner that was killed part way still leaves the tests it finished
+			for (TestResultChannel.Result result : TestResultChannel.read(channel)) {
+				TestCase test = byName.get(result.getTest());
+				if (test != null) {
+					FitnessValue posFit = result.getValue();
+					posFit.setTestClassName(test.getTestName());
+					if (result.getFailures().contains("No tests found matching Method")) {
+						System.err.println("Ignoring no tests found issue from the JUnitRunner");
+						posFit.setAllPassed(true);	// JUnitRunner issue, ignoring for now
+					}
+					results.put(result.getTest(), posFit);
 				}
+			}
+		} catch (IOException e) {
+			logger.error("cannot read test result channel " + channel + ": " + e.getMessage());
+		} finally {
+			channel.delete();
 		}
-		return posFit;
+		if (watchdog.killedProcess()) {
+			CachingRepresentation.markTimedOut(keys, tests, results);
+		} else if (results.isEmpty() && output != null) {
+			if (output.contains("[TEST]:")) {
+				results = CachingRepresentation.parseBatchResults(keys, tests, output);
+			} else if (tests.size() == 1) {
+				results.put(keys.get(0), CachingRepresentation.resultsFromOutput(
+						tests.get(0).getTestName(), output));
+			}
+			// otherwise the runner didn't understand the batch (e.g., an old one taking --batch for a test
+			// class), and the caller falls back to running the tests one at a time
+		}
+		return results;
 	}
 
 	public void cleanup() {
@@ -358,17 +874,43 @@ Representation<G>  {
 			if (Configuration.editMode == Configuration.EditMode.EXISTING && this instanceof JavaRepresentation) {
 				JavaRepresentation thisRep = (JavaRepresentation) this;
 				boolean canEditsCompile = true;
+				String program = null;
 				for (JavaEditOperation edit : thisRep.getGenome()) {
 					assert edit instanceof JavaSavedEdit : "Should use JavaSavedEdit in EXISTING mode";
-					canEditsCompile = canEditsCompile && ((JavaSavedEdit) edit).canCompile;
+					JavaSavedEdit saved = (JavaSavedEdit) edit;
+					canEditsCompile = canEditsCompile && saved.canCompile;
+					String editProgram = thisRep.editFactory.programFolder(saved.shard);
+					if (program == null) {
+						program = editProgram;
+					} else if (!program.equals(editProgram)) {
+						// no one shard of the merged program has all of the edits
+						canEditsCompile = false;
+					}
+				}
+				if (program == null) {
+					program = thisRep.editFactory.programFolder(0);
 				}
-				this.alreadyCompiled = Pair.of(canEditsCompile, thisRep.editFactory.mergedVariant);
-				this.variantFolder = thisRep.editFactory.mergedVariant;
+				this.alreadyCompiled = Pair.of(canEditsCompile, program);
+				this.variantFolder = program;
 				canCompile = canEditsCompile;
 			} else {
-				boolean result = this.internalCompile(sourceName, exeName);
-				this.alreadyCompiled =  Pair.of(result, exeName);
-				canCompile = result;
+				CompileCache.Result cached = this.usesCompileCache() ? CompileCache.get(this.getSourceDigest()) : null;
+				if (cached != null) {
+					this.alreadyCompiled = Pair.of(cached.isSuccess(), cached.getExeName());
+					this.variantFolder = cached.getExeName();
+					this.adoptCompiledClasses(cached.getExeName(), cached.getClasses());
+					this.compileDiagnostics = cached.getDiagnostics();
+					canCompile = cached.isSuccess();
+				} else {
+					this.compileDiagnostics = "";
+					boolean result = this.internalCompile(sourceName, exeName);
+					this.alreadyCompiled =  Pair.of(result, exeName);
+					canCompile = result;
+					if (this.usesCompileCache()) {
+						CompileCache.put(this.getSourceDigest(), new CompileCache.Result(result,
+								this.compileDiagnostics, exeName, this.compiledClassesInMemory()));
+					}
+				}
 			}
 		}
 		return canCompile;
@@ -376,6 +918,20 @@ Representation<G>  {
 
 	protected abstract boolean internalCompile(String sourceName, String exeName);
 
+	/** compiler output from the last compile, if it failed */
+	protected String compileDiagnostics = "";
+
+	/**
+	 * Only genprog variants go through the compile cache: the original is compiled under fixed names
+	 * (sanity, coverage) that other code relies on, and pre_compute gives every edit its own folder.
+	 */
+	private boolean usesCompileCache() {
+		return Configuration.editMode == Configuration.EditMode.GENPROG && !this.getGenome().isEmpty();
+	}
+
+	/** picks up class files compiled in memory for an identical variant */
+	protected abstract void adoptCompiledClasses(String exeName, Map<String, byte[]> classes);
+
 	/*
 	 * indicates that cached information based on our AST structure is no longer
 	 * valid
@@ -383,8 +939,13 @@ Representation<G>  {
 	void updated() {
 		alreadySourceBuffers = null;
 		alreadyCompiled = null;
+		reservedVariantFolder = null;
 		fitness = -1.0;
-		myHashCode = -1;
+		myHashCode = null;
+		mySavedEditIds = null;
+		myFingerprint = null;
+		myDigest = null;
+		mySourceDigest = null;
 	}
 
 	private void writeObject(java.io.ObjectOutputStream out)
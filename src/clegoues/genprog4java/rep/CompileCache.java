@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2014-2015, 
+ *  Claire Le Goues     <clegoues@cs.cmu.edu>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package clegoues.genprog4java.rep;
+
+import org.apache.log4j.Logger;
+
+import java.lang.ref.SoftReference;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compile results shared by every variant in the run, keyed by the digest of the emitted source
+ * (see {@link Representation#getSourceDigest()}).  A variant whose source matches one compiled earlier,
+ * whether it came out of crossover, mutation or copy(), reuses that compile: same outcome, same
+ * diagnostics, same class files.
+ * Class files kept in memory are only softly held; if they have been collected, the entry counts as a miss.
+ */
+public class CompileCache {
+	protected static Logger logger = Logger.getLogger(CompileCache.class);
+
+	private static final int maxEntries = 100000;
+
+	public static class Result {
+		private final boolean success;
+		private final String diagnostics;
+		private final String exeName;
+		private final SoftReference<Map<String, byte[]>> classes;
+		/** on the copies {@link CompileCache#get} hands out, the classes, held so they can't go away mid-use */
+		private final Map<String, byte[]> held;
+
+		public Result(boolean success, String diagnostics, String exeName, Map<String, byte[]> classes) {
+			this.success = success;
+			this.diagnostics = diagnostics;
+			this.exeName = exeName;
+			this.classes = classes == null ? null : new SoftReference<Map<String, byte[]>>(classes);
+			this.held = null;
+		}
+
+		private Result(Result cached, Map<String, byte[]> held) {
+			this.success = cached.success;
+			this.diagnostics = cached.diagnostics;
+			this.exeName = cached.exeName;
+			this.classes = cached.classes;
+			this.held = held;
+		}
+
+		public boolean isSuccess() {
+			return success;
+		}
+
+		public String getDiagnostics() {
+			return diagnostics;
+		}
+
+		/** variant folder holding the class files */
+		public String getExeName() {
+			return exeName;
+		}
+
+		/** class files compiled in memory, or null if they are on disk */
+		public Map<String, byte[]> getClasses() {
+			if (held != null) {
+				return held;
+			}
+			return classes == null ? null : classes.get();
+		}
+	}
+
+	private static final Map<String, Result> cache = Collections.synchronizedMap(
+			new LinkedHashMap<String, Result>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Result> eldest) {
+					return size() > maxEntries;
+				}
+			});
+
+	private static final AtomicLong hits = new AtomicLong(0);
+	private static final AtomicLong misses = new AtomicLong(0);
+
+	private CompileCache() {}
+
+	/** @return the earlier compile of this source, or null if there is none we can reuse */
+	public static Result get(String sourceDigest) {
+		Result result = cache.get(sourceDigest);
+		if (result != null && result.classes != null) {
+			// dereferenced just the once: the classes could be collected between any two calls
+			Map<String, byte[]> classes = result.classes.get();
+			if (classes == null) {
+				cache.remove(sourceDigest);
+				result = null;
+			} else {
+				result = new Result(result, classes);
+			}
+		}
+		if (result == null) {
+			misses.incrementAndGet();
+		} else {
+			long h = hits.incrementAndGet();
+			if (h % 100 == 0) {
+				logger.info("compile cache: " + h + " hits, " + misses.get() + " misses");
+			}
+		}
+		return result;
+	}
+
+	public static void put(String sourceDigest, Result result) {
+		cache.put(sourceDigest, result);
+	}
+}
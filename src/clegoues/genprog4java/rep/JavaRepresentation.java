@@ -35,6 +35,7 @@ package clegoues.genprog4java.rep;
 
 import clegoues.genprog4java.Search.Search;
 import clegoues.genprog4java.fitness.TestCase;
+import clegoues.genprog4java.fitness.VariantOptions;
 import clegoues.genprog4java.java.*;
 import clegoues.genprog4java.localization.Localization;
 import clegoues.genprog4java.localization.Location;
@@ -45,9 +46,14 @@ import clegoues.genprog4java.mut.WeightedHole;
 import clegoues.genprog4java.mut.WeightedMutation;
 import clegoues.genprog4java.mut.edits.java.JavaEditFactory;
 import clegoues.genprog4java.mut.edits.java.JavaEditOperation;
+import clegoues.genprog4java.mut.edits.java.JavaSwapOperation;
+import clegoues.genprog4java.mut.edits.java.SequenceExchanger;
 import clegoues.genprog4java.mut.holes.java.JavaLocation;
 import clegoues.util.ConfigurationBuilder;
 import clegoues.util.GlobalUtils;
+import static clegoues.util.ConfigurationBuilder.BOOL_ARG;
+import static clegoues.util.ConfigurationBuilder.INT;
+import static clegoues.util.ConfigurationBuilder.STRING;
 import org.apache.commons.exec.CommandLine;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.tuple.Pair;
@@ -60,11 +66,14 @@ import org.eclipse.jface.text.IDocument;
 import org.eclipse.text.edits.MalformedTreeException;
 import org.eclipse.text.edits.TextEdit;
 
-import javax.tools.JavaCompiler;
-import javax.tools.JavaFileObject;
-import javax.tools.ToolProvider;
 import java.io.*;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class JavaRepresentation extends
 CachingRepresentation<JavaEditOperation> {
@@ -81,6 +90,41 @@ CachingRepresentation<JavaEditOperation> {
 
 	public static int stmtCounter = 0;
 
+	private static final Object compileCommandLock = new Object();
+
+	public static boolean inMemoryCompile = ConfigurationBuilder.of( BOOL_ARG )
+			.withVarName( "inMemoryCompile" )
+			.withDefault( "false" )
+			.withHelp( "keep compiled variants in memory; only takes effect with useTestServer, genprog mode and no compileCommand" )
+			.inGroup( "JavaRepresentation Parameters" )
+			.build();
+
+	public static String ingredientIndexFile = ConfigurationBuilder.of( STRING )
+			.withVarName( "ingredientIndexFile" )
+			.withDefault( "" )
+			.withHelp( "file to save the fix ingredients allowed at each location to, and reuse them from when the source and fix space are unchanged; empty to not save them" )
+			.inGroup( "JavaRepresentation Parameters" )
+			.build();
+
+	public static int mergedMethodStatements = ConfigurationBuilder.of( INT )
+			.withVarName( "mergedMethodStatements" )
+			.withDefault( "2000" )
+			.withHelp( "cut methods of the merged program that have more statements than this into smaller ones; 0 to not cut them" )
+			.inGroup( "JavaRepresentation Parameters" )
+			.build();
+
+	public static int mergedClassKB = ConfigurationBuilder.of( INT )
+			.withVarName( "mergedClassKB" )
+			.withDefault( "1024" )
+			.withHelp( "split the merged program into shards, compiled separately, when a class of it has more source than this; 0 to only split when it is too large to compile" )
+			.inGroup( "JavaRepresentation Parameters" )
+			.build();
+
+	/** class files of a variant compiled in memory, keyed by binary name; null if compiled to disk */
+	private Map<String, byte[]> inMemoryClasses = null;
+	private String inMemoryExeName = null;
+	private boolean inMemoryClassesWritten = false;
+
 	private ArrayList<JavaEditOperation> genome = new ArrayList<JavaEditOperation>();
 
 	public JavaRepresentation(ArrayList<JavaEditOperation> genome2, Localization localizationInfo) {
@@ -214,17 +258,57 @@ CachingRepresentation<JavaEditOperation> {
 		return genome.size();
 	}
 
+	/**
+	 * Variants compiled in memory have nothing on disk; this writes their sources and classes
+	 * to the variant folder, in the same layout a regular compile would have produced.  Variants
+	 * compiled to disk are already there, so filename is not used.
+	 */
 	@Override
 	public void outputSource(String filename) {
-		// TODO Auto-generated method stub
+		if (this.inMemoryClasses == null) {
+			return;
+		}
+		String outDirName = Configuration.outputDir + File.separatorChar + this.inMemoryExeName + File.separatorChar;
+		try {
+			this.writeSources(outDirName, this.computeSourceBuffers());
+		} catch (IOException e) {
+			logger.error("failed to write sources for " + this.getName() + ": " + e.getMessage());
+		}
+		this.writeCompiledClasses();
+	}
+
+	/** classes changed by at least one edit in the genome */
+	public Set<ClassInfo> getTouchedClasses() {
+		Set<ClassInfo> touched = new HashSet<ClassInfo>();
+		for (JavaEditOperation edit : genome) {
+			if (edit.getTouchedClass() != null) {
+				touched.add(edit.getTouchedClass());
+			}
+		}
+		return touched;
+	}
 
+	/**
+	 * Whether to emit (and so compile) only the classes the genome touches.  The others then come
+	 * from the original class files on srcClassPath, so this needs srcClassPath to be set.  The
+	 * original itself (empty genome, e.g. sanity and coverage) still emits everything.
+	 */
+	private boolean touchedClassesOnly() {
+		return !genome.isEmpty() && !Configuration.srcClassPath.trim().isEmpty();
 	}
 
 	@Override
 	protected ArrayList<Pair<ClassInfo, String>> internalComputeSourceBuffers() {
 		ArrayList<Pair<ClassInfo, String>> retVal = new ArrayList<Pair<ClassInfo, String>>();
+		Set<ClassInfo> touched = this.touchedClassesOnly() ? this.getTouchedClasses() : null;
+		if (touched != null && touched.isEmpty()) {
+			touched = null;
+		}
 		for (Map.Entry<ClassInfo, String> pair : sourceInfo.getOriginalSource().entrySet()) {
 			ClassInfo ci = pair.getKey();
+			if (touched != null && !touched.contains(ci)) {
+				continue;
+			}
 			String filename = ci.getClassName();
 			String path = ci.getPackage();
 			String source = pair.getValue();
@@ -284,30 +368,85 @@ CachingRepresentation<JavaEditOperation> {
 		// hacks on StackOverflow, but for the time being I just want something
 		// that works at all
 		// rather than a perfect implementation. One thing at a time.
-		CommandLine command = CommandLine.parse(Configuration.javaVM);
-		String outputDir = "";
+		CommandLine command = this.testJVMCommand(exeName, doingCoverage);
 
-		if (doingCoverage) {
-			outputDir =  Configuration.outputDir + File.separator
-					+ "coverage/coverage.out/:";
-			//+ System.getProperty("path.separator") + ":"
-			//		+ Configuration.outputDir + File.separator + exeName + "/";
-			if (Configuration.editMode == Configuration.EditMode.EXISTING) {
-				String variantName = this.getVariantFolder();
-				if(variantName!=null && !variantName.equalsIgnoreCase("")){
-					outputDir += Configuration.outputDir + File.separator
-							+ variantName + File.separator + ":";
-				}
-				outputDir += Configuration.outputDir + File.separator + exeName + "/";
-			}
+		if (Configuration.editMode == Configuration.EditMode.EXISTING) {
+			command.addArgument("clegoues.genprog4java.fitness.JUnitTestRunnerWithPool");
 		} else {
-			String variantName = this.getVariantFolder();
-			if(variantName!=null && !variantName.equalsIgnoreCase("")){
-				outputDir += Configuration.outputDir + File.separator 
-						+ variantName + File.separator + ":";
+			command.addArgument("clegoues.genprog4java.fitness.JUnitTestRunner");
+		}
+
+		command.addArgument(test.toString());
+
+		if (Configuration.editMode == Configuration.EditMode.EXISTING) {
+			StringBuilder options = new StringBuilder();
+		    for (String option : this.variantOptions()) {
+		    	options.append(option).append(" ");
 			}
-			outputDir += Configuration.outputDir + File.separator + exeName + "/";
+		    for (int option : this.variantOptionIds(exeName)) {
+		    	command.addArgument(Integer.toString(option));
+		    }
+		    logger.info("Setting " + options.toString() + "to true");
+		}
+		return command;
+
+	}
+
+	@Override
+	protected CommandLine internalBatchTestCaseCommand(String exeName, List<TestCase> tests,
+			boolean stopOnFailure) {
+		CommandLine command = this.testJVMCommand(exeName, false);
+		command.addArgument("clegoues.genprog4java.fitness.JUnitTestRunner");
+		command.addArgument("--batch");
+		if (stopOnFailure) {
+			command.addArgument("--stop-on-failure");
+		}
+		for (TestCase test : tests) {
+			command.addArgument(test.toString());
+		}
+		return command;
+	}
+
+	@Override
+	protected CommandLine internalCoverageTestCaseCommand(String exeName, List<TestCase> tests,
+			String sessionsFile) {
+		CommandLine command = this.testJVMCommand(exeName, true, "output=none,excludes=org.junit.*");
+		command.addArgument("clegoues.genprog4java.fitness.JUnitCoverageRunner");
+		command.addArgument(sessionsFile);
+		for (TestCase test : tests) {
+			command.addArgument(test.toString());
+		}
+		return command;
+	}
+
+	@Override
+	protected CommandLine internalPopulationTestCommand(String requestFile, List<TestCase> tests) {
+		// as for the test server, only the libs (with JUnit and the runner) go on the JVM's own classpath
+		CommandLine command = CommandLine.parse(Configuration.javaVM);
+		command.addArgument("-classpath");
+		command.addArgument(Configuration.libs);
+		command.addArgument("-Xms128m");
+		command.addArgument("-Xmx1024m");
+		command.addArgument("clegoues.genprog4java.fitness.JUnitPopulationRunner");
+		if (populationSharedLoader) {
+			command.addArgument("--shared-loader");
 		}
+		command.addArgument(requestFile);
+		for (TestCase test : tests) {
+			command.addArgument(test.toString());
+		}
+		return command;
+	}
+
+	/** java, classpath and JVM options for running tests on a variant, up to the runner class */
+	private CommandLine testJVMCommand(String exeName, boolean doingCoverage) {
+		return this.testJVMCommand(exeName, doingCoverage,
+				"destfile=" + JavaRepresentation.coverageDataFile() + ",excludes=org.junit.*,append=false");
+	}
+
+	private CommandLine testJVMCommand(String exeName, boolean doingCoverage, String agentOptions) {
+		CommandLine command = CommandLine.parse(Configuration.javaVM);
+		String outputDir = this.variantOutputDirs(exeName, doingCoverage);
 		String classPath = outputDir + System.getProperty("path.separator")
 		+ Configuration.libs + System.getProperty("path.separator") 
 		+ Configuration.testClassPath + System.getProperty("path.separator") 
@@ -323,38 +462,181 @@ CachingRepresentation<JavaEditOperation> {
 		if (doingCoverage) {
 
 			command.addArgument("-Xmx1024m");
-			command.addArgument("-javaagent:" + Configuration.jacocoPath
-					+ "=excludes=org.junit.*,append=false");
+			command.addArgument("-javaagent:" + Configuration.jacocoPath + "=" + agentOptions);
 		} else {
 			command.addArgument("-Xms128m");
 			command.addArgument("-Xmx256m");
 			command.addArgument("-client");
 		}
+		return command;
+	}
 
-		if (Configuration.editMode == Configuration.EditMode.EXISTING) {
-			command.addArgument("clegoues.genprog4java.fitness.JUnitTestRunnerWithPool");
+	private static final AtomicInteger coverageThreads = new AtomicInteger(0);
+
+	private static final ThreadLocal<String> coverageDataFile = new ThreadLocal<String>() {
+		@Override
+		protected String initialValue() {
+			int n = coverageThreads.getAndIncrement();
+			return n == 0 ? "jacoco.exec" : "jacoco-" + n + ".exec";
+		}
+	};
+
+	/**
+	 * file that coverage runs started from the current thread leave their jacoco data in, relative to the
+	 * working directory.  Each thread has its own, so that coverage runs can go in parallel.
+	 */
+	public static String coverageDataFile() {
+		return coverageDataFile.get();
+	}
+
+	/** directories holding this variant's compiled classes, in classpath order */
+	private String variantOutputDirs(String exeName, boolean doingCoverage) {
+		String outputDir = "";
+
+		if (doingCoverage) {
+			outputDir =  Configuration.outputDir + File.separator
+					+ "coverage/coverage.out/:";
+			//+ System.getProperty("path.separator") + ":"
+			//		+ Configuration.outputDir + File.separator + exeName + "/";
+			if (Configuration.editMode == Configuration.EditMode.EXISTING) {
+				String variantName = this.getVariantFolder();
+				if(variantName!=null && !variantName.equalsIgnoreCase("")){
+					outputDir += Configuration.outputDir + File.separator
+							+ variantName + File.separator + ":";
+				}
+				outputDir += Configuration.outputDir + File.separator + exeName + "/";
+			}
 		} else {
-			command.addArgument("clegoues.genprog4java.fitness.JUnitTestRunner");
+			String variantName = this.getVariantFolder();
+			if(variantName!=null && !variantName.equalsIgnoreCase("")){
+				outputDir += Configuration.outputDir + File.separator 
+						+ variantName + File.separator + ":";
+			}
+			outputDir += Configuration.outputDir + File.separator + exeName + "/";
 		}
+		return outputDir;
+	}
 
-		command.addArgument(test.toString());
+	@Override
+	protected String variantClassPath(String exeName) {
+		return this.variantOutputDirs(exeName, false) + System.getProperty("path.separator")
+		+ Configuration.testClassPath + System.getProperty("path.separator")
+		+ Configuration.srcClassPath;
+	}
 
+	private List<String> variantOptions() {
+		List<String> options = new ArrayList<String>();
 		if (Configuration.editMode == Configuration.EditMode.EXISTING) {
-			StringBuilder options = new StringBuilder();
-		    for (JavaEditOperation e : this.getGenome()) {
-		    	command.addArgument(e.getVariantOption());
-		    	options.append(e.getVariantOption()).append(" ");
+			for (JavaEditOperation e : this.getGenome()) {
+				options.add(e.getVariantOption());
 			}
-		    logger.info("Setting " + options.toString() + "to true");
 		}
-		return command;
+		return options;
+	}
 
+	/**
+	 * loaders over each merged program's classes, only ever used to number its options.  Kept so that each
+	 * program's GlobalOptions is only loaded and indexed once.
+	 */
+	private static final Map<String, ClassLoader> optionLoaders = new ConcurrentHashMap<String, ClassLoader>();
+
+	@Override
+	protected int[] variantOptionIds(String exeName) {
+		List<String> options = this.variantOptions();
+		if (options.isEmpty()) {
+			return new int[0];
+		}
+		String program = this.variantOutputDirs(exeName, false);
+		try {
+			ClassLoader loader = optionLoaders.get(program);
+			if (loader == null) {
+				List<URL> urls = new ArrayList<URL>();
+				for (String entry : program.split(File.pathSeparator)) {
+					if (!entry.isEmpty()) {
+						urls.add(new File(entry).toURI().toURL());
+					}
+				}
+				optionLoaders.putIfAbsent(program, new URLClassLoader(urls.toArray(new URL[urls.size()]), null));
+				loader = optionLoaders.get(program);
+			}
+			return VariantOptions.ids(options.toArray(new String[options.size()]), loader);
+		} catch (Exception e) {
+			// the runner turns down an id that isn't one of the program's, so the tests fail
+			logger.error("cannot number variant options " + options + " in " + program + ": " + e);
+			return new int[] { -1 };
+		}
 	}
 
 	public JavaStatement getFromCodeBank(int atomId) {
 		return sourceInfo.getCodeBank().get(atomId);
 	}
 
+	/**
+	 * the edit keys of the genome, one per line.  Edits commute when no statement is touched by two of
+	 * them, none is nested in another's, and none moves code around (swaps and sequence exchanges); their
+	 * keys are then sorted, so that order doesn't matter.
+	 */
+	@Override
+	protected String genomeFingerprint() {
+		if (Configuration.editMode == Configuration.EditMode.EXISTING) {
+			return null;
+		}
+		List<String> keys = new ArrayList<String>(genome.size());
+		boolean commute = true;
+		List<ASTNode> touched = new ArrayList<ASTNode>();
+		Set<Integer> touchedIds = new HashSet<Integer>();
+		for (JavaEditOperation edit : genome) {
+			keys.add(edit.getEditKey());
+			if (edit instanceof JavaSwapOperation || edit instanceof SequenceExchanger) {
+				commute = false;
+			}
+			for (int atom : edit.getTouchedAtoms()) {
+				if (!touchedIds.add(atom)) {
+					commute = false;
+				}
+				JavaStatement stmt = this.getFromCodeBank(atom);
+				if (stmt != null) {
+					touched.add(stmt.getASTNode());
+				}
+			}
+		}
+		if (commute && keys.size() > 1) {
+			for (ASTNode node : touched) {
+				for (ASTNode parent = node.getParent(); commute && parent != null; parent = parent.getParent()) {
+					commute = !touched.contains(parent);
+				}
+			}
+			if (commute) {
+				Collections.sort(keys);
+			}
+		}
+		StringBuilder fingerprint = new StringBuilder();
+		for (String key : keys) {
+			fingerprint.append(key).append('\n');
+		}
+		return fingerprint.toString();
+	}
+
+	private static String originalDigest = null;
+
+	/** SHA-256 of the original source, which every genome is applied to */
+	@Override
+	protected String baseDigest() {
+		synchronized (JavaRepresentation.class) {
+			if (originalDigest == null) {
+				MessageDigest md = sha256();
+				for (Map.Entry<ClassInfo, String> source : new TreeMap<ClassInfo, String>(sourceInfo.getOriginalSource()).entrySet()) {
+					md.update(source.getKey().pathToJavaFile().getBytes(StandardCharsets.UTF_8));
+					md.update((byte) 0);
+					md.update(source.getValue().getBytes(StandardCharsets.UTF_8));
+					md.update((byte) 0);
+				}
+				originalDigest = toHex(md.digest());
+			}
+			return originalDigest;
+		}
+	}
+
 	@SuppressWarnings("rawtypes")
 	@Override
 	public void performEdit(Mutation edit, Location dst, EditHole source) {
@@ -370,86 +652,107 @@ CachingRepresentation<JavaEditOperation> {
 		if (sourceBuffers == null) {
 			return false;
 		}
+		this.inMemoryClasses = null;
+		if (this.compilesInMemory()) {
+			return this.compileInMemory(progName, exeName, sourceBuffers);
+		}
 		String outDirName = Configuration.outputDir + File.separatorChar
 				+ exeName + File.separatorChar ;
 
-		File sanRepDir = new File(Configuration.outputDir + File.separatorChar+ exeName);
-		if (!sanRepDir.exists()){
-			sanRepDir.mkdir();
+		try {
+			this.writeSources(outDirName, sourceBuffers);
+		} catch (IOException e) {
+			logger.error("failed to write sources for " + this.getName() + ": " + e.getMessage());
+			return false;
 		}
 
+		if(Configuration.compileCommand.equalsIgnoreCase("")) {
+			File outDirFile = new File(outDirName);
+			if (!outDirFile.exists())
+				outDirFile.mkdir();
+			StringWriter diagnostics = new StringWriter();
+			boolean result = VariantCompiler.compile(progName, sourceBuffers, outDirName, diagnostics);
+			this.compileDiagnostics = diagnostics.toString();
+			return result;
+		} else {
+			// Appending variant folder to the command so that we know each variant needs to be compiled
+			// It shouldn't affect commands that do not expect arguments anyway
+			// compile scripts typically work in place on the project checkout, so only one may run at a time
+			synchronized (compileCommandLock) {
+				return GlobalUtils.runCommand(Configuration.compileCommand + " " + Configuration.outputDir + File.separator + exeName);
+			}
+		}
+	}
 
+	private void writeSources(String outDirName, List<Pair<ClassInfo, String>> sourceBuffers) throws IOException {
 		File mutDir = new File(outDirName);
 		if (!mutDir.exists()){
-			mutDir.mkdir();
+			mutDir.mkdirs();
 		}
 
-		try {
-			for (Pair<ClassInfo, String> ele : sourceBuffers) {
-				ClassInfo ci = ele.getLeft();
-				String program = ele.getRight();
-				String pathToFile = ci.pathToJavaFile();
-
-				createPathFiles(outDirName, pathToFile);
-
-				BufferedWriter bw = new BufferedWriter(new FileWriter(
-						outDirName + File.separatorChar + pathToFile));
-				bw.write(program);
-				bw.flush();
-
-				bw.close();
-//				if(!Configuration.compileCommand.equalsIgnoreCase("")) {
-//					String path =
-//							Configuration.workingDir+ File.separatorChar + Configuration.sourceDir+ File.separatorChar + pathToFile;
-//
-//					BufferedWriter bw2 = new BufferedWriter(new FileWriter(path));
-//					bw2.write(program);
-//					bw2.flush();
-//					bw2.close();
-//				}
-			}
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-		}
+		for (Pair<ClassInfo, String> ele : sourceBuffers) {
+			ClassInfo ci = ele.getLeft();
+			String program = ele.getRight();
+			String pathToFile = ci.pathToJavaFile();
 
-		if(Configuration.compileCommand.equalsIgnoreCase("")) {
-			Iterable<? extends JavaFileObject> fileObjects = ASTUtils
-					.getJavaSourceFromString(progName, sourceBuffers);
+			createPathFiles(outDirName, pathToFile);
 
-			LinkedList<String> options = new LinkedList<String>();
+			BufferedWriter bw = new BufferedWriter(new FileWriter(
+					outDirName + File.separatorChar + pathToFile));
+			bw.write(program);
+			bw.flush();
 
-			options.add("-cp");
-			options.add(Configuration.libs);
+			bw.close();
+		}
+	}
+
+	/** in-memory class files can only be used by the test server, and are only worth keeping
+	 * for throwaway genprog variants; debug runs want everything on disk. */
+	private boolean compilesInMemory() {
+		return inMemoryCompile && CachingRepresentation.useTestServer && !Configuration.debug
+				&& Configuration.editMode == Configuration.EditMode.GENPROG
+				&& Configuration.compileCommand.equalsIgnoreCase("");
+	}
 
-			options.add("-source");
-			options.add(Configuration.sourceVersion);
+	private boolean compileInMemory(String progName, String exeName, List<Pair<ClassInfo, String>> sourceBuffers) {
+		StringWriter diagnostics = new StringWriter();
+		Map<String, byte[]> classes = VariantCompiler.compileInMemory(progName, sourceBuffers, diagnostics);
+		this.compileDiagnostics = diagnostics.toString();
+		if (classes == null) {
+			return false;
+		}
+		this.inMemoryClasses = classes;
+		this.inMemoryExeName = exeName;
+		this.inMemoryClassesWritten = false;
+		return true;
+	}
 
-			options.add("-target");
-			options.add(Configuration.sourceVersion);
+	@Override
+	protected void adoptCompiledClasses(String exeName, Map<String, byte[]> classes) {
+		this.inMemoryClasses = classes;
+		this.inMemoryExeName = exeName;
+		this.inMemoryClassesWritten = false;
+	}
 
-			options.add("-d");
+	@Override
+	protected Map<String, byte[]> compiledClassesInMemory() {
+		return this.inMemoryClasses;
+	}
 
-			File outDirFile = new File(outDirName);
-			if (!outDirFile.exists())
-				outDirFile.mkdir();
-			options.add(outDirName);
-
-			StringWriter compilerErrorWriter = new StringWriter();
-			JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
-
-			// Here is where it runs the command to compile the code
-			if (!compiler.getTask(compilerErrorWriter, null, null, options,
-					null, fileObjects).call()) {
-				logger.error(compilerErrorWriter.toString());
-				compilerErrorWriter.flush();
-				return false;
-			} else {
-				return true;
+	@Override
+	protected synchronized void writeCompiledClasses() {
+		if (this.inMemoryClasses == null || this.inMemoryClassesWritten) {
+			return;
+		}
+		String outDirName = Configuration.outputDir + File.separatorChar + this.inMemoryExeName + File.separatorChar;
+		try {
+			for (Map.Entry<String, byte[]> entry : this.inMemoryClasses.entrySet()) {
+				File classFile = new File(outDirName + entry.getKey().replace('.', File.separatorChar) + ".class");
+				FileUtils.writeByteArrayToFile(classFile, entry.getValue());
 			}
-		} else {
-			// Appending variant folder to the command so that we know each variant needs to be compiled
-			// It shouldn't affect commands that do not expect arguments anyway
-			return GlobalUtils.runCommand(Configuration.compileCommand + " " + Configuration.outputDir + File.separator + exeName);
+			this.inMemoryClassesWritten = true;
+		} catch (IOException e) {
+			logger.error("failed to write classes for " + this.getName() + ": " + e.getMessage());
 		}
 	}
 
@@ -486,9 +789,27 @@ CachingRepresentation<JavaEditOperation> {
 	}
 
 
+	@Override
+	public void indexEditSources(List<Location> locations) {
+		// only these draw on the fix space
+		List<Mutation> mutations = new ArrayList<Mutation>();
+		for (WeightedMutation mutation : Search.availableMutations) {
+			Mutation mut = (Mutation) mutation.getKey();
+			if (mut == Mutation.APPEND || mut == Mutation.REPLACE || mut == Mutation.SWAP) {
+				mutations.add(mut);
+			}
+		}
+		MessageDigest md = sha256();
+		md.update(this.getSourceDigest().getBytes(StandardCharsets.UTF_8));
+		for (WeightedAtom atom : localization.getFixSourceAtoms()) {
+			md.update((atom.getAtom() + ":" + atom.getWeight() + "\n").getBytes(StandardCharsets.UTF_8));
+		}
+		editFactory.indexEditSources(this, locations, mutations, ingredientIndexFile.trim(), toHex(md.digest()));
+	}
+
 	@SuppressWarnings("rawtypes")
 	@Override
-	public Location instantiateLocation(Integer i, double negWeight) {
+	public synchronized Location instantiateLocation(Integer i, double negWeight) {
 		if(this.sourceInfo.getLocationInformation().containsKey(i)) {
 			return this.sourceInfo.getLocationInformation().get(i);
 		}
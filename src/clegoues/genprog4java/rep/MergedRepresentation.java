@@ -8,12 +8,14 @@ import clegoues.genprog4java.java.ClassInfo;
 import clegoues.genprog4java.main.Configuration;
 import clegoues.genprog4java.mut.EditHole;
 import clegoues.genprog4java.mut.EditOperation;
+import clegoues.genprog4java.mut.MethodCutter;
 import clegoues.genprog4java.mut.RewriteFinalizer;
 import clegoues.genprog4java.mut.edits.java.*;
 import clegoues.genprog4java.mut.holes.java.ExpHole;
 import clegoues.genprog4java.mut.holes.java.JavaLocation;
 import clegoues.genprog4java.mut.holes.java.StatementHole;
 import clegoues.genprog4java.mut.varexc.VarexCGlobal;
+import clegoues.util.WorkerPool;
 import org.apache.commons.lang3.tuple.Pair;
 import org.eclipse.jdt.core.dom.*;
 import org.eclipse.jdt.core.dom.rewrite.ASTRewrite;
@@ -25,19 +27,35 @@ import org.eclipse.text.edits.TextEdit;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.Callable;
 
 /**
  * Merging multiple JavaRepresentations into one by:
  *
  * 1. putting all genomes into one
  * 2. Keep a list of JavaRepresentation to selectively merge variants that can compile
+ *
+ * Methods of the merged program that grow past {@link JavaRepresentation#mergedMethodStatements} are cut with
+ * {@link MethodCutter}. If the program is still too big to compile as one (see {@link JavaRepresentation#mergedClassKB}),
+ * its edits are dealt out to shards, each a merged program of its own in its own variant folder, compiled in parallel.
  */
 public class MergedRepresentation extends JavaRepresentation {
 
     private LinkedList<JavaRepresentation> composed = new LinkedList<>();
-    private HashMap<ASTNode, List<ASTNode>> nodeStore = new HashMap<>();
     private HashSet<JavaEditOperation> compilableEdits = new HashSet<>();
     private HashSet<JavaEditOperation> uncompilableEdits = new HashSet<>();
+    /** repetitive edits, left out of the program, and the variant folder of the edit whose option they share */
+    private HashMap<JavaEditOperation, String> aliases = new HashMap<>();
+    private boolean prepared = false;
+
+    /** on a shard, the merge it is part of and the edits it encodes; null on the merge itself */
+    private MergedRepresentation whole = null;
+    private HashSet<JavaEditOperation> shardEdits = null;
+    /** the shards of the merge, if it was split; empty if it compiled as one program */
+    private ArrayList<MergedRepresentation> shards = new ArrayList<>();
+
+    /** what javac says when a method or class exceeds the limits of the class file format */
+    private static final String[] TOO_LARGE = {"code too large", "too many constants"};
 
     private MergedRepresentation(){}
 
@@ -58,15 +76,32 @@ public class MergedRepresentation extends JavaRepresentation {
 
     @Override
     protected ArrayList<Pair<ClassInfo, String>> internalComputeSourceBuffers() {
+        if (whole != null) {
+            return whole.rewrite(shardEdits);
+        }
+        prepareEdits();
+        return rewrite(compilableEdits);
+    }
+
+    private void prepareEdits() {
+        if (prepared) return;
         sortGenomeForAOR();
         sortGenome();
         putExpMutationToEnd();
         collectEdits();
         excludeEdits();
         restrictROR();
-        HashSet<EditOperation> toRemove = excludeRepetitive();
-        serializeEdits();
-        compilableEdits.removeAll(toRemove);    // the actual removal should come after serialization so that single edits can be preserved
+        excludeRepetitive();
+        compilableEdits.removeAll(aliases.keySet());    // still serialized, see serializeEdits, so that single edits can be preserved
+        prepared = true;
+    }
+
+    /**
+     * Rewrite every class with the given edits, as methods switched on by variant options
+     */
+    private ArrayList<Pair<ClassInfo, String>> rewrite(Set<JavaEditOperation> toApply) {
+        VarexCGlobal.reset();
+        HashMap<ASTNode, List<ASTNode>> nodeStore = new HashMap<>();
         ArrayList<Pair<ClassInfo, String>> retVal = new ArrayList<Pair<ClassInfo, String>>();
         for (Map.Entry<ClassInfo, String> pair : sourceInfo.getOriginalSource().entrySet()) {
             ClassInfo ci = pair.getKey();
@@ -83,7 +118,7 @@ public class MergedRepresentation extends JavaRepresentation {
             try {
                 for (JavaEditOperation edit : this.getGenome()) {
                     JavaLocation locationStatement = (JavaLocation) edit.getLocation();
-                    if(compilableEdits.contains(edit) && locationStatement.getClassInfo()!=null && locationStatement.getClassInfo().getClassName().equalsIgnoreCase(filename) && locationStatement.getClassInfo().getPackage().equalsIgnoreCase(path)){
+                    if(toApply.contains(edit) && locationStatement.getClassInfo()!=null && locationStatement.getClassInfo().getClassName().equalsIgnoreCase(filename) && locationStatement.getClassInfo().getPackage().equalsIgnoreCase(path)){
                         edit.methodEdit(rewriter, nodeStore, finalizer);
                     }
                 }
@@ -98,9 +133,10 @@ public class MergedRepresentation extends JavaRepresentation {
             // computeSourceBuffers failed than
             // to return null at those catch blocks
             finalizer.finalizeEdits();
-            retVal.add(Pair.of(ci, original.get()));
+            retVal.add(Pair.of(ci, cutMethods(ci, original.get())));
         }
         retVal.add(Pair.of(new ClassInfo("GlobalOptions", "varexc"), VarexCGlobal.getCodeAsString()));
+        retVal.add(Pair.of(new ClassInfo("HoistedFields", "varexc"), VarexCGlobal.getHoistedFieldsCodeAsString()));
         return retVal;
     }
 
@@ -115,11 +151,152 @@ public class MergedRepresentation extends JavaRepresentation {
         }
     }
 
-    private void serializeEdits() {
-        editFactory.pool.addEdits(compilableEdits, true);
+    /**
+     * Cut the methods of source that have more statements than {@link JavaRepresentation#mergedMethodStatements}.
+     * The cutter doesn't handle every kind of statement; if it gives up, source is left as it was.
+     */
+    private String cutMethods(ClassInfo ci, String source) {
+        if (mergedMethodStatements <= 0) return source;
+        int largest = MethodCutter.largestMethod(source);
+        if (largest <= mergedMethodStatements) return source;
+        logger.info("Cutting methods of " + ci.getClassName() + ", the largest has " + largest + " statements");
+        Document document = new Document(source);
+        try {
+            new MethodCutter(document, mergedMethodStatements).applyCutEdits();
+            return document.get();
+        } catch (RuntimeException e) {
+            logger.warn("Could not cut methods of " + ci.getClassName() + ": " + e);
+            return source;
+        }
+    }
+
+    /**
+     * Compile the merged program, split into as many shards as it takes for each to compile
+     */
+    @Override
+    protected boolean internalCompile(String progName, String exeName) {
+        if (whole != null) {
+            return super.internalCompile(progName, exeName);
+        }
+        List<Pair<ClassInfo, String>> sources = this.computeSourceBuffers();
+        boolean result = false;
+        int nShards = 1;
+        if (sources != null && mergedClassKB > 0) {
+            int largest = 0;
+            for (Pair<ClassInfo, String> source : sources) {
+                largest = Math.max(largest, source.getRight().length());
+            }
+            nShards = Math.max(1, (int) Math.ceil(largest / (mergedClassKB * 1024.0)));
+        }
+        if (nShards == 1) {
+            result = super.internalCompile(progName, exeName);
+            if (!result && isTooLarge(this.compileDiagnostics)) {
+                nShards = 2;
+            }
+        }
+        if (nShards > 1) {
+            result = this.compileShards(nShards);
+        }
+        serializeEdits(exeName);
+        return result;
+    }
+
+    /**
+     * Deal the compilable edits out to nShards shards, round robin so that the edits of a method are spread
+     * across them, and compile those in parallel.  Doubles the number of shards while javac says they are too large.
+     */
+    private boolean compileShards(int nShards) {
+        while (true) {
+            nShards = Math.min(nShards, Math.max(1, compilableEdits.size()));
+            logger.info("Splitting the merged program of " + compilableEdits.size() + " edits into " + nShards + " shards");
+            shards.clear();
+            for (int i = 0; i < nShards; i++) {
+                MergedRepresentation shard = new MergedRepresentation();
+                shard.whole = this;
+                shard.shardEdits = new HashSet<>();
+                shard.sourceInfo = this.sourceInfo;
+                shard.variantFolder = CachingRepresentation.newVariantFolder();
+                shards.add(shard);
+            }
+            int next = 0;
+            for (JavaEditOperation edit : this.getGenome()) {
+                if (compilableEdits.contains(edit)) {
+                    MergedRepresentation shard = shards.get(next++ % nShards);
+                    shard.shardEdits.add(edit);
+                    shard.getGenome().add(edit);
+                }
+            }
+            // the ASTs and VarexCGlobal are shared, so only the compiling is done in parallel
+            List<Callable<Boolean>> jobs = new ArrayList<>();
+            for (final MergedRepresentation shard : shards) {
+                if (shard.computeSourceBuffers() == null) {
+                    return false;
+                }
+                jobs.add(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return shard.compile(shard.getVariantFolder(), shard.getVariantFolder());
+                    }
+                });
+            }
+            List<Boolean> results = WorkerPool.invokeAll(jobs);
+            boolean tooLarge = false;
+            boolean failed = false;
+            for (int i = 0; i < shards.size(); i++) {
+                if (!results.get(i)) {
+                    failed = true;
+                    tooLarge = tooLarge || isTooLarge(shards.get(i).compileDiagnostics);
+                    logger.error("Shard " + shards.get(i).getVariantFolder() + " does not compile");
+                }
+            }
+            if (!failed) {
+                return true;
+            }
+            if (!tooLarge || nShards >= compilableEdits.size()) {
+                return false;
+            }
+            nShards *= 2;
+        }
+    }
+
+    private static boolean isTooLarge(String diagnostics) {
+        for (String message : TOO_LARGE) {
+            if (diagnostics != null && diagnostics.contains(message)) return true;
+        }
+        return false;
+    }
+
+    /** the programs the merge was compiled to: its shards, or the merge itself */
+    private List<MergedRepresentation> programs() {
+        return shards.isEmpty() ? Collections.singletonList(this) : shards;
+    }
+
+    /**
+     * Save the edits with the shard that encodes each; a repetitive edit goes with the edit whose option it shares
+     */
+    private void serializeEdits(String exeName) {
+        List<String> folders = new ArrayList<>();
+        HashMap<String, Integer> shardOfFolder = new HashMap<>();
+        List<HashSet<JavaEditOperation>> byShard = new ArrayList<>();
+        for (MergedRepresentation program : programs()) {
+            HashSet<JavaEditOperation> edits = program == this ? new HashSet<>(compilableEdits) : new HashSet<>(program.shardEdits);
+            for (JavaEditOperation edit : edits) {
+                shardOfFolder.put(edit.getVariantFolder(), byShard.size());
+            }
+            folders.add(program == this ? exeName : program.getVariantFolder());
+            byShard.add(edits);
+        }
+        for (Map.Entry<JavaEditOperation, String> alias : aliases.entrySet()) {
+            Integer shard = shardOfFolder.get(alias.getValue());
+            byShard.get(shard == null ? 0 : shard).add(alias.getKey());
+        }
+        for (int i = 0; i < byShard.size(); i++) {
+            editFactory.pool.addEdits(byShard.get(i), true, i);
+        }
         editFactory.pool.addEdits(uncompilableEdits, false);
+        editFactory.pool.setShardFolders(folders);
         Path path = FileSystems.getDefault().getPath(Configuration.outputDir, Configuration.editSerFile);
-        JavaEditPool.serialize(editFactory.pool, path);
+        JavaEditPool.save(editFactory.pool, path);
     }
 
     /**
@@ -192,8 +369,7 @@ public class MergedRepresentation extends JavaRepresentation {
         compilableEdits.removeAll(toRemove);
     }
 
-    private HashSet<EditOperation> excludeRepetitive() {
-        HashSet<EditOperation> toRemove = new HashSet<>();
+    private void excludeRepetitive() {
         // the value is the variant folder name that will be kept in the meta program
         HashMap<Expression, HashMap<String, String>> uniqueAORLocation = new HashMap<>();
         HashMap<Expression, String> uniqueUOILocation = new HashMap<>();
@@ -204,7 +380,7 @@ public class MergedRepresentation extends JavaRepresentation {
                 AOR aor = (AOR) e;
                 if (uniqueAORLocation.containsKey(aor.locationExpr)) {
                     if (uniqueAORLocation.get(aor.locationExpr).containsKey(aor.type)) {
-                        excludeAndResetVariantOption(toRemove, e, uniqueAORLocation.get(aor.locationExpr).get(aor.type));
+                        excludeAndResetVariantOption(e, uniqueAORLocation.get(aor.locationExpr).get(aor.type));
                     }
                     else {
                         HashMap<String, String> type2variantFolder = uniqueAORLocation.get(aor.locationExpr);
@@ -219,7 +395,7 @@ public class MergedRepresentation extends JavaRepresentation {
             }
             if (e instanceof UOI) {
                 if (uniqueUOILocation.containsKey(((UOI) e).locationExpr)) {
-                    excludeAndResetVariantOption(toRemove, e, uniqueUOILocation.get(((UOI) e).locationExpr));
+                    excludeAndResetVariantOption(e, uniqueUOILocation.get(((UOI) e).locationExpr));
                 }
                 else {
                     uniqueUOILocation.put(((UOI) e).locationExpr, e.getVariantFolder());
@@ -227,21 +403,20 @@ public class MergedRepresentation extends JavaRepresentation {
             }
             if (e instanceof ROR) {
                 if (uniqueRORLocation.containsKey(((ROR) e).locationExpr)) {
-                    excludeAndResetVariantOption(toRemove, e, uniqueRORLocation.get(((ROR) e).locationExpr));
+                    excludeAndResetVariantOption(e, uniqueRORLocation.get(((ROR) e).locationExpr));
                 }
                 else {
                     uniqueRORLocation.put(((ROR) e).locationExpr, e.getVariantFolder());
                 }
             }
         }
-        return toRemove;
     }
 
-    private void excludeAndResetVariantOption(Set<EditOperation> set, EditOperation e, String finalVariantFolder) {
+    private void excludeAndResetVariantOption(EditOperation e, String finalVariantFolder) {
         String optionName = finalVariantFolder + "_" + ((JavaEditOperation) e).getVariantOptionSuffix();
         ((JavaEditOperation) e).setVariantOption(optionName);
         logger.info("Resetting variant option of " + e.toString() + " to " + optionName + ", will be excluded after serialization");
-        set.add(e);
+        aliases.put((JavaEditOperation) e, finalVariantFolder);
     }
 
     private void exclude(Set<EditOperation> set, EditOperation e) {
@@ -291,7 +466,7 @@ public class MergedRepresentation extends JavaRepresentation {
     }
 
     /**
-     * Verify test results with pos.tests and neg.tests, similar to sanity check
+     * Verify test results with pos.tests and neg.tests, similar to sanity check, on every shard if the merge was split
      *
      * @return  true if check succeeds
      */
@@ -316,19 +491,20 @@ public class MergedRepresentation extends JavaRepresentation {
                 logger.info("Merge check: ignoring test " + posTest.getTestName());
                 continue;
             }
-            FitnessValue res = this.internalTestCase(
-                    this.getVariantFolder(),
-                    this.getVariantFolder(), posTest, false);
-            if (!res.isAllPassed()) {
-                testsOutOfScope++;
-                logger.info(testsOutOfScope + " tests out of scope so far, out of " + Fitness.positiveTests.size());
-                logger.error("Merge check: "
-                        + this.getVariantFolder()
-                        + " failed positive test " + posTest.getTestName());
-                return false;
-            } else {
-                passingTests.add(posTest);
+            for (MergedRepresentation program : programs()) {
+                FitnessValue res = program.internalTestCase(
+                        program.getVariantFolder(),
+                        program.getVariantFolder(), posTest, false);
+                if (!res.isAllPassed()) {
+                    testsOutOfScope++;
+                    logger.info(testsOutOfScope + " tests out of scope so far, out of " + Fitness.positiveTests.size());
+                    logger.error("Merge check: "
+                            + program.getVariantFolder()
+                            + " failed positive test " + posTest.getTestName());
+                    return false;
+                }
             }
+            passingTests.add(posTest);
             testNum++;
         }
         Fitness.positiveTests = passingTests;
@@ -344,14 +520,16 @@ public class MergedRepresentation extends JavaRepresentation {
         testNum = 1;
         for (TestCase negTest : Fitness.negativeTests) {
             logger.info("\tn" + testNum + ": ");
-            FitnessValue res = this.internalTestCase(
-                    this.getVariantFolder(),
-                    this.getVariantFolder(), negTest, false);
-            if (res.isAllPassed()) {
-                logger.error("Merge check: "
-                        + this.getVariantFolder()
-                        + " passed negative test " + negTest.toString());
-                return false;
+            for (MergedRepresentation program : programs()) {
+                FitnessValue res = program.internalTestCase(
+                        program.getVariantFolder(),
+                        program.getVariantFolder(), negTest, false);
+                if (res.isAllPassed()) {
+                    logger.error("Merge check: "
+                            + program.getVariantFolder()
+                            + " passed negative test " + negTest.toString());
+                    return false;
+                }
             }
             testNum++;
         }
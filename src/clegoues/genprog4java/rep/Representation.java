@@ -51,6 +51,9 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 
 // it's not clear that this EditOperation thing is a good choice because 
@@ -94,6 +97,11 @@ Comparable<Representation<G>> {
 	public String getVariantFolder() {
 		return this.variantFolder;
 	}
+
+	/** fixes the variant folder before the variant is compiled; no-op by default */
+	public void reserveVariantFolder() {
+	}
+
 	public abstract Representation<G> copy();
 
 	public abstract boolean getVariableLength();
@@ -129,21 +137,113 @@ Comparable<Representation<G>> {
 	public abstract FitnessValue testCase(TestCase test);
 	public abstract FitnessValue testCase(TestCase test, boolean doingCoverage);
 
+	/**
+	 * runs tests with coverage in a single JVM, leaving each test's jacoco data in sessionsFile as a
+	 * session of its own, named by the test.  The variant must already be compiled for coverage.
+	 * @return results keyed by test (see {@link TestCase#toString()}), or null if this representation
+	 * can't do that
+	 */
+	public Map<String, FitnessValue> testCasesWithCoverage(List<TestCase> tests, String sessionsFile) {
+		return null;
+	}
+
+	/**
+	 * runs several tests on this variant, in order.
+	 * @param stopOnFailure whether to stop at the first test that fails
+	 * @return one result per test that was run, in the order of tests; shorter than tests only if
+	 * stopOnFailure cut it off
+	 */
+	public List<FitnessValue> testCases(List<TestCase> tests, boolean stopOnFailure) {
+		List<FitnessValue> results = new ArrayList<FitnessValue>(tests.size());
+		for (TestCase test : tests) {
+			FitnessValue result = this.testCase(test);
+			results.add(result);
+			if (stopOnFailure && !result.isAllPassed()) {
+				break;
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * runs tests on every one of variants at once, if this representation knows how to do that more
+	 * cheaply than variant by variant; by default, it doesn't.
+	 * @return for each variant, in order, the results it got keyed by test (as in {@link TestCase#toString()});
+	 * a variant may be missing some or all of its results, which then have to be run the usual way.  Null if
+	 * nothing was run.
+	 */
+	public List<Map<String, FitnessValue>> testPopulation(List<? extends Representation<G>> variants,
+			List<TestCase> tests) {
+		return null;
+	}
+
 	public abstract List<WeightedMutation> availableMutations(
 			Location faultyLocation);
 
-	protected transient int myHashCode = -1;
+	protected transient String myFingerprint = null;
+
+	/**
+	 * a canonical description of the genome, worked out from the edits alone, or null if this
+	 * representation doesn't have one.  Variants with the same fingerprint are the same program, so outside
+	 * EXISTING mode it stands in for the source in {@link #hashCode()}, {@link #equals(Object)} and
+	 * {@link #getDigest()}, and source is only emitted to compile.
+	 */
+	protected String genomeFingerprint() {
+		return null;
+	}
+
+	private String getFingerprint() {
+		if (myFingerprint == null) {
+			myFingerprint = this.genomeFingerprint();
+		}
+		return myFingerprint;
+	}
+
+	/** identifies the program that genomes are applied to, for digests built from a fingerprint */
+	protected String baseDigest() {
+		return "";
+	}
+
+	protected transient int[] mySavedEditIds = null;
+	/** size of the genome mySavedEditIds was worked out from */
+	protected transient int mySavedEditIdsFrom = -1;
+
+	/**
+	 * the distinct pool ids of an EXISTING-mode genome, sorted, which identify it in {@link #hashCode()} and
+	 * {@link #equals(Object)}.  An edit picked twice only switches its option on once, so genomes with the
+	 * same edits are equal however often each was picked.  Worked out again if edits were added since.
+	 */
+	private int[] getSavedEditIds() {
+		List<G> genome = this.getGenome();
+		if (mySavedEditIds == null || mySavedEditIdsFrom != genome.size()) {
+			int[] ids = new int[genome.size()];
+			for (int i = 0; i < ids.length; i++) {
+				assert genome.get(i) instanceof JavaSavedEdit : "Only JavaSavedEdit is allowed";
+				ids[i] = ((JavaSavedEdit) genome.get(i)).getId();
+			}
+			Arrays.sort(ids);
+			int distinct = 0;
+			for (int i = 0; i < ids.length; i++) {
+				if (distinct == 0 || ids[i] != ids[distinct - 1]) {
+					ids[distinct++] = ids[i];
+				}
+			}
+			mySavedEditIds = Arrays.copyOf(ids, distinct);
+			mySavedEditIdsFrom = genome.size();
+		}
+		return mySavedEditIds;
+	}
+
+	protected transient Integer myHashCode = null;
 	@Override
 	public int hashCode() {
-		if(myHashCode < 0) {
+		if (Configuration.editMode == Configuration.EditMode.EXISTING) {
+			return Arrays.hashCode(this.getSavedEditIds());
+		}
+		if(myHashCode == null) {
 			HashCodeBuilder builder = new HashCodeBuilder();
-			if (Configuration.editMode == Configuration.EditMode.EXISTING) {
-				List<G> genome = this.getGenome();
-				for (G e : genome) {
-					assert e instanceof JavaSavedEdit : "Only JavaSavedEdit is allowed";
-					JavaSavedEdit edit = (JavaSavedEdit) e;
-					builder.append(edit.editString + edit.getVariantFolder());
-				}
+			if (this.getFingerprint() != null) {
+				builder.append(this.getFingerprint());
 			}
 			else {
 				List<Pair<ClassInfo, String>> sourceBuffers = computeSourceBuffers();
@@ -156,19 +256,104 @@ Comparable<Representation<G>> {
 		return myHashCode;
 	}
 
+	protected transient String myDigest = null;
+	/** size of the genome an EXISTING-mode myDigest was worked out from */
+	protected transient int myDigestFrom = -1;
+
+	/**
+	 * SHA-256 of what determines this variant's behavior: the distinct saved edits, sorted, in EXISTING mode, the
+	 * genome fingerprint (with the program it applies to) if there is one, the emitted source otherwise.
+	 * Unlike {@link #hashCode()}, this is safe to use as the identity of a variant in caches that outlive
+	 * the run.
+	 */
+	public String getDigest() {
+		// search adds pool edits to the genome directly, as for getSavedEditIds
+		if (Configuration.editMode == Configuration.EditMode.EXISTING && myDigestFrom != this.getGenome().size()) {
+			myDigest = null;
+		}
+		if (myDigest == null) {
+			if (Configuration.editMode == Configuration.EditMode.EXISTING) {
+				MessageDigest md = sha256();
+				// an edit picked twice is the same program as one picked once; see getSavedEditIds
+				Set<String> edits = new TreeSet<String>();
+				for (G e : this.getGenome()) {
+					JavaSavedEdit edit = (JavaSavedEdit) e;
+					edits.add(edit.editString + "\t" + edit.getVariantFolder());
+				}
+				for (String edit : edits) {
+					md.update(edit.getBytes(StandardCharsets.UTF_8));
+					md.update((byte) '\n');
+				}
+				myDigest = toHex(md.digest());
+				myDigestFrom = this.getGenome().size();
+			} else if (this.getFingerprint() != null) {
+				MessageDigest md = sha256();
+				md.update(this.baseDigest().getBytes(StandardCharsets.UTF_8));
+				md.update((byte) 0);
+				md.update(this.getFingerprint().getBytes(StandardCharsets.UTF_8));
+				myDigest = toHex(md.digest());
+			} else {
+				myDigest = this.getSourceDigest();
+			}
+		}
+		return myDigest;
+	}
+
+	protected transient String mySourceDigest = null;
+
+	/** SHA-256 of the emitted source buffers, sorted by class */
+	public String getSourceDigest() {
+		if (mySourceDigest == null) {
+			MessageDigest md = sha256();
+			List<Pair<ClassInfo, String>> sourceBuffers = computeSourceBuffers();
+			if (sourceBuffers == null) {
+				// doesn't build; all we have to go on is the genome
+				md.update(("unbuildable\t" + this.getName()).getBytes(StandardCharsets.UTF_8));
+			} else {
+				List<Pair<ClassInfo, String>> sorted = new ArrayList<Pair<ClassInfo, String>>(sourceBuffers);
+				Collections.sort(sorted, new Comparator<Pair<ClassInfo, String>>() {
+					@Override
+					public int compare(Pair<ClassInfo, String> one, Pair<ClassInfo, String> two) {
+						return one.getLeft().compareTo(two.getLeft());
+					}
+				});
+				for (Pair<ClassInfo, String> ele : sorted) {
+					md.update(ele.getLeft().pathToJavaFile().getBytes(StandardCharsets.UTF_8));
+					md.update((byte) 0);
+					md.update(ele.getRight().getBytes(StandardCharsets.UTF_8));
+					md.update((byte) 0);
+				}
+			}
+			mySourceDigest = toHex(md.digest());
+		}
+		return mySourceDigest;
+	}
+
+	protected static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	protected static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder();
+		for (byte b : bytes) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
 	@Override
 	public boolean equals(Object that) {
 		if (that instanceof Representation) {
 		    if (Configuration.editMode == Configuration.EditMode.EXISTING) {
-		    	Set<JavaSavedEdit> thisGenome = new HashSet<>((List<JavaSavedEdit>) this.getGenome());
-		    	List<JavaSavedEdit> thatGenome = (List<JavaSavedEdit>) ((Representation) that).getGenome();
-		    	for (JavaSavedEdit edit : thatGenome) {
-		    		if (!thisGenome.contains(edit)) {
-		    			return false;
-					}
-				}
-				return true;
+		    	return Arrays.equals(this.getSavedEditIds(), ((Representation) that).getSavedEditIds());
 			}
+		    else if (this.getFingerprint() != null && ((Representation) that).getFingerprint() != null) {
+		    	return this.getFingerprint().equals(((Representation) that).getFingerprint());
+		    }
 		    else {
 				List<Pair<ClassInfo, String>> thisBuffers = computeSourceBuffers();
 				List<Pair<ClassInfo, String>> thatBuffers = ((Representation) that).computeSourceBuffers();
@@ -224,6 +409,10 @@ Comparable<Representation<G>> {
 
 	public abstract Boolean shouldBeRemovedFromFix(WeightedAtom atom);
 
+	/** works out the edit sources at locations ahead of time, if this representation can; by default, does nothing */
+	public void indexEditSources(List<Location> locations) {
+	}
+
 	public abstract Boolean doesEditApply(Location location, Mutation editType);
 
 	public abstract ArrayList<Integer> atomIDofSourceLine(ClassInfo cls, int line);
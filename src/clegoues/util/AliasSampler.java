@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2014-2015, 
+ *  Claire Le Goues     <clegoues@cs.cmu.edu>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+
+package clegoues.util;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.List;
+
+/**
+ * Walker's alias method (as described by Vose): O(n) to build, O(1) per pick.  For distributions
+ * that are sampled many times without changing, such as the fault space.
+ *
+ * Zero weights are never picked unless every weight is zero, in which case picks are uniform.
+ */
+public class AliasSampler implements WeightedSampler {
+	/** chance of keeping column i rather than taking its alias */
+	private final double[] keep;
+	private final int[] alias;
+
+	public AliasSampler(List<? extends Pair<?, Double>> items) {
+		int n = items.size();
+		keep = new double[n];
+		alias = new int[n];
+		double total = 0.0;
+		for (Pair<?, Double> item : items) {
+			total += item.getRight();
+		}
+		double[] scaled = new double[n];
+		int[] small = new int[n];
+		int[] large = new int[n];
+		int numSmall = 0;
+		int numLarge = 0;
+		for (int i = 0; i < n; i++) {
+			scaled[i] = total > 0 ? items.get(i).getRight() * n / total : 1.0;
+			if (scaled[i] < 1.0) {
+				small[numSmall++] = i;
+			} else {
+				large[numLarge++] = i;
+			}
+		}
+		while (numSmall > 0 && numLarge > 0) {
+			int less = small[--numSmall];
+			int more = large[--numLarge];
+			keep[less] = scaled[less];
+			alias[less] = more;
+			scaled[more] = (scaled[more] + scaled[less]) - 1.0;
+			if (scaled[more] < 1.0) {
+				small[numSmall++] = more;
+			} else {
+				large[numLarge++] = more;
+			}
+		}
+		// whatever is left is full, up to rounding
+		while (numLarge > 0) {
+			int i = large[--numLarge];
+			keep[i] = 1.0;
+			alias[i] = i;
+		}
+		while (numSmall > 0) {
+			int i = small[--numSmall];
+			keep[i] = 1.0;
+			alias[i] = i;
+		}
+	}
+
+	@Override
+	public int indexOf(double fraction) {
+		int n = keep.length;
+		if (n == 0) {
+			return -1;
+		}
+		// one draw picks the column, and what's left of it decides between the column and its alias
+		double scaled = fraction * n;
+		int column = Math.min((int) scaled, n - 1);
+		return (scaled - column) < keep[column] ? column : alias[column];
+	}
+
+	@Override
+	public int size() {
+		return keep.length;
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2014-2015, 
+ *  Claire Le Goues     <clegoues@cs.cmu.edu>
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+
+package clegoues.util;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.List;
+
+/**
+ * Weighted sampling without replacement: a Fenwick tree over the weights, so that picking and
+ * removing an item are both O(log n).  For candidate lists that are drawn from until one is
+ * acceptable, like fix ingredients, where removing rejected items from the list itself is O(n) each.
+ *
+ * Once only zero-weight items remain, they are picked in order, as
+ * {@link GlobalUtils#chooseOneWeighted(java.util.List)} would.
+ */
+public class FenwickSampler implements WeightedSampler {
+	private final double[] weights;
+	/** tree[i] is the sum of the weights of items (i - lowbit(i), i], 1-based */
+	private final double[] tree;
+	private final boolean[] removed;
+	private int remaining;
+	/** how many of the remaining items have a positive weight */
+	private int positiveRemaining = 0;
+	private int firstRemaining = 0;
+
+	public FenwickSampler(List<? extends Pair<?, Double>> items) {
+		int n = items.size();
+		weights = new double[n];
+		tree = new double[n + 1];
+		removed = new boolean[n];
+		remaining = n;
+		for (int i = 0; i < n; i++) {
+			weights[i] = items.get(i).getRight();
+			if (weights[i] > 0.0) {
+				positiveRemaining++;
+			}
+			tree[i + 1] += weights[i];
+			int parent = (i + 1) + ((i + 1) & -(i + 1));
+			if (parent <= n) {
+				tree[parent] += tree[i + 1];
+			}
+		}
+	}
+
+	private double total() {
+		double sum = 0.0;
+		for (int i = tree.length - 1; i > 0; i -= i & -i) {
+			sum += tree[i];
+		}
+		return sum;
+	}
+
+	@Override
+	public int indexOf(double fraction) {
+		if (remaining == 0) {
+			return -1;
+		}
+		if (positiveRemaining == 0) {
+			while (removed[firstRemaining]) {
+				firstRemaining++;
+			}
+			return firstRemaining;
+		}
+		// descend to the first item whose running sum reaches wanted
+		double wanted = fraction * this.total();
+		int position = 0;
+		int step = Integer.highestOneBit(tree.length - 1);
+		for (; step > 0; step >>= 1) {
+			int next = position + step;
+			if (next < tree.length && tree[next] < wanted) {
+				position = next;
+				wanted -= tree[next];
+			}
+		}
+		// a fraction of 0, or rounding, can leave us on a dead item (or past the end); take the nearest live one
+		int i = Math.min(position, weights.length - 1);
+		int chosen = i;
+		while (chosen < weights.length && !this.live(chosen)) {
+			chosen++;
+		}
+		if (chosen == weights.length) {
+			chosen = i;
+			while (!this.live(chosen)) {
+				chosen--;
+			}
+		}
+		return chosen;
+	}
+
+	private boolean live(int i) {
+		return !removed[i] && weights[i] > 0.0;
+	}
+
+	/** takes item i out of the running; later picks never return it */
+	public void remove(int i) {
+		if (removed[i]) {
+			return;
+		}
+		removed[i] = true;
+		remaining--;
+		if (weights[i] > 0.0) {
+			positiveRemaining--;
+		}
+		double weight = weights[i];
+		for (int j = i + 1; j < tree.length; j += j & -j) {
+			tree[j] -= weight;
+		}
+	}
+
+	/** @return how many items have not been removed */
+	public int remaining() {
+		return remaining;
+	}
+
+	@Override
+	public int size() {
+		return weights.length;
+	}
+}
@@ -8,7 +8,7 @@ while [  $COUNTER -lt 20 ]; do
 echo "" >> runSimpleExample.txt
 echo "SEED: $COUNTER" >> runSimpleExample.txt
 
-rm -f /home/mau/Research/genprog4java/tests/SimpleExample/testcache.ser
+rm -f /home/mau/Research/genprog4java/tests/SimpleExample/testcache.log
 
 rm -f /home/mau/Research/genprog4java/tests/SimpleExample/simpleExample.config
 